@@ -0,0 +1,144 @@
+package com.example.testfx.externalsort;
+
+import com.example.testfx.GenerateTestDatasets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link ExternalSort} and {@link ExternalSortWithOffsetValues} on the datasets of {@link GenerateTestDatasets},
+ * for the whole sort and for each phase on its own: parsing the text into the binary file, generating the runs,
+ * and merging them. Each invocation gets a fresh sorter, and the inputs of a phase are prepared outside the
+ * measurement.
+ *
+ * The defaults keep a run short; the full sweep is passed on the command line:
+ * {@code -p sortedPercent=0,25,50,75 -p size=100000,1000000,10000000 -p runCodec=none,deltaFor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExternalSortBenchmark {
+
+    @Param({"plain", "offset"})
+    public String sorter;
+
+    /** Percentage of the input, at its start, that is already sorted. */
+    @Param({"0", "50"})
+    public int sortedPercent;
+
+    @Param({"1000000"})
+    public int size;
+
+    /** Codec of the intermediate runs, see {@link SortConfig#setRunCodec(RunCodec)}. */
+    @Param({"none"})
+    public String runCodec;
+
+    private File textFile;
+    private File binaryFile;
+
+    @Setup(Level.Trial)
+    public void generateDataset() throws IOException {
+        textFile = File.createTempFile("benchmark", ".txt");
+        textFile.deleteOnExit();
+        new GenerateTestDatasets().generateTestDataset(textFile.getPath(), size, sortedPercent / 100.0);
+        binaryFile = newSorter().convertToBinary(textFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDataset() {
+        textFile.delete();
+        binaryFile.delete();
+    }
+
+    ExternalSort newSorter() {
+        SortConfig config = new SortConfig();
+        if (runCodec.equals("deltaFor")) {
+            config.setRunCodec(new DeltaForCodec());
+        }
+        if (sorter.equals("offset")) {
+            ExternalSortWithOffsetValues externalSort = new ExternalSortWithOffsetValues(config);
+            externalSort.setInputFilename(textFile.getPath());
+            return externalSort;
+        }
+        return new ExternalSort(textFile.getPath(), config);
+    }
+
+    /**
+     * A fresh sorter, whose spill files are deleted after every invocation.
+     */
+    @State(Scope.Thread)
+    public static class Sorter {
+        ExternalSort externalSort;
+
+        @Setup(Level.Invocation)
+        public void create(ExternalSortBenchmark benchmark) {
+            externalSort = benchmark.newSorter();
+        }
+
+        @TearDown(Level.Invocation)
+        public void cleanUp() throws IOException {
+            externalSort.getBufferPool().close();
+            externalSort.getSpillManager().deleteAll();
+        }
+    }
+
+    /**
+     * A fresh sorter with the runs of the dataset already generated.
+     */
+    @State(Scope.Thread)
+    public static class GeneratedRuns {
+        ExternalSort externalSort;
+        List<Run> runs;
+
+        @Setup(Level.Invocation)
+        public void generate(ExternalSortBenchmark benchmark) throws IOException {
+            externalSort = benchmark.newSorter();
+            runs = externalSort.splitIntoRuns(benchmark.binaryFile);
+        }
+
+        @TearDown(Level.Invocation)
+        public void cleanUp() throws IOException {
+            externalSort.getBufferPool().close();
+            externalSort.getSpillManager().deleteAll();
+        }
+    }
+
+    @Benchmark
+    public void sort(Sorter sorter, Blackhole blackhole) throws IOException {
+        sorter.externalSort.sortTo(SortSink.of(blackhole::consume));
+    }
+
+    @Benchmark
+    public File ingest(Sorter sorter) throws IOException {
+        return sorter.externalSort.convertToBinary(textFile);
+    }
+
+    @Benchmark
+    public List<Run> runGeneration(Sorter sorter) throws IOException {
+        return sorter.externalSort.splitIntoRuns(binaryFile);
+    }
+
+    @Benchmark
+    public void merge(GeneratedRuns generated, Blackhole blackhole) throws IOException {
+        generated.externalSort.mergeAll(generated.runs, SortSink.of(blackhole::consume));
+    }
+}
@@ -9,10 +9,11 @@ import javafx.stage.FileChooser;
 import java.io.*;
 import java.net.URL;
 import java.nio.file.Files;
-import java.util.List;
-import java.util.Optional;
 import java.util.ResourceBundle;
 import com.example.testfx.externalsort.ExternalSort;
+import com.example.testfx.externalsort.KeyType;
+import com.example.testfx.externalsort.RecordLayout;
+import com.example.testfx.externalsort.RecordSort;
 
 
 public class GUIController implements Initializable {
@@ -69,6 +70,8 @@ public class GUIController implements Initializable {
 
 
     private File selectedFile;
+    // Layout used to sort datasets that are not plain integers, or null for the integer sorters
+    private RecordLayout recordLayout;
 
     public void clear() {
         selectedFile = null;
@@ -90,11 +93,14 @@ public class GUIController implements Initializable {
     private void analyzeDataset(String filename){
          int numericCount = 0, textCount = 0, mixedCount = 0, totalLines = 0;
         boolean isTabular = false;
+        boolean hasDecimals = false;
+        String firstLine = null;
 
         try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
             String line;
             while ((line = br.readLine()) != null) {
                 totalLines++;
+                if (firstLine == null) firstLine = line;
 
                 if (line.contains(",")) { // Check for tabular format (CSV-like)
                     isTabular = true;
@@ -102,6 +108,7 @@ public class GUIController implements Initializable {
 
                 if (isNumeric(line)) {
                     numericCount++;
+                    hasDecimals |= line.contains(".");
                 } else if (isAlphabetic(line)) {
                     textCount++;
                 } else {
@@ -116,16 +123,24 @@ public class GUIController implements Initializable {
         // Determine dataset type
         System.out.println("Total lines analyzed: " + totalLines);
         this.totalLines.setText("Total Lines: " + totalLines);
+        recordLayout = null;
         if (isTabular) {
             datasetLabel.setText("Dataset Type: Tabular");
+            recordLayout = RecordLayout.delimited(',', 0, KeyType.UTF8);
+            // A first row without any digits is taken to be the column names, kept on top instead of sorted
+            if (!firstLine.matches(".*\\d.*")) recordLayout = recordLayout.withHeader();
         } else if (numericCount == totalLines) {
             datasetLabel.setText("Dataset Type: Numerical");
+            if (hasDecimals) recordLayout = RecordLayout.lines(KeyType.DOUBLE);
         } else if (textCount == totalLines) {
             datasetLabel.setText("Dataset Type: Text-Based");
+            recordLayout = RecordLayout.lines(KeyType.UTF8);
         } else if (mixedCount > 0) {
             datasetLabel.setText("Dataset Type: Mixed (Numbers & Text)");
+            recordLayout = RecordLayout.lines(KeyType.UTF8);
         } else {
             datasetLabel.setText("Dataset Type: Unknown");
+            recordLayout = RecordLayout.lines(KeyType.UTF8);
         }
     }
     private static boolean isNumeric(String str) {
@@ -159,64 +174,23 @@ public class GUIController implements Initializable {
                 spaceComplexityLabel.setText("Space Complexity: O(B)");
 
 
-                // Check if it's the first sort or a subsequent sort
-                File metadataFile = new File(selectedFile.getAbsolutePath() + ".metadata");
-                int offset = 0;
-                boolean isFirstSort = !metadataFile.exists();
-
-                if (!isFirstSort) {
-                    try (BufferedReader br = new BufferedReader(new FileReader(metadataFile))) {
-                        String line = br.readLine();
-                        if (line != null) {
-                            offset = Integer.parseInt(line.trim());
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Error reading metadata: " + e.getMessage());
-                        offset = 0;
-                    }
-                }
-
-                // Ask user about offset for demonstration purposes
-                if (!isFirstSort) {
-                    TextInputDialog dialog = new TextInputDialog(String.valueOf(offset));
-                    dialog.setTitle("Offset Value");
-                    dialog.setHeaderText("Enter the offset value (0 for full sort)");
-                    dialog.setContentText("Offset:");
-
-                    Optional<String> result = dialog.showAndWait();
-                    if (result.isPresent()) {
-                        try {
-                            offset = Integer.parseInt(result.get().trim());
-                        } catch (NumberFormatException e) {
-                            offset = 0;
-                        }
-                    }
-                }
-
-                // Perform the sort
+                // Only lines appended since the last sort are sorted, the rest comes from the previous output
                 ExternalSortWithOffsetValues externalSort = new ExternalSortWithOffsetValues();
                 externalSort.setInputFilename(selectedFile.getAbsolutePath());
-                externalSort.setOffset(offset);
-                List<Integer> sortedData = externalSort.sort();
 
-                // Save metadata for next time
-                try (PrintWriter writer = new PrintWriter(metadataFile)) {
-                    writer.println(sortedData.size());
-                }
+                // Stream the sorted values straight into the display text
+                StringBuilder sb = new StringBuilder();
+                long reusedRows = externalSort.sortIncrementally(value -> sb.append(value).append("\n"));
 
                 // Display results
-                StringBuilder sb = new StringBuilder();
-                for (Integer value : sortedData) {
-                    sb.append(value).append("\n");
-                }
                 sortedTextArea.setText(sb.toString());
 
                 // Show timing with offset info
                 long endTime = System.nanoTime();
                 double elapsedTime = (endTime - startTime) / 1_000_000.0;
                 String timeInfo = String.format("Execution Time: %.2f ms", elapsedTime);
-                if (offset > 0) {
-                    timeInfo += String.format(" (Used offset: %d)", offset);
+                if (reusedRows > 0) {
+                    timeInfo += String.format(" (Reused %d sorted rows)", reusedRows);
                 } else {
                     timeInfo += " (Full sort)";
                 }
@@ -229,13 +203,16 @@ public class GUIController implements Initializable {
 
                 spaceComplexityLabel.setText("Space Complexity: O(B)");
 
-                // Standard external merge sort
-                ExternalSort externalSort = new ExternalSort(selectedFile.getAbsolutePath());
-                List<Integer> sortedData = externalSort.sort();
-
                 StringBuilder sb = new StringBuilder();
-                for (Integer value : sortedData) {
-                    sb.append(value).append("\n");
+                if (recordLayout != null) {
+                    // Text, tabular and decimal datasets are sorted as records
+                    for (String line : new RecordSort(selectedFile.getAbsolutePath(), recordLayout).sort()) {
+                        sb.append(line).append("\n");
+                    }
+                } else {
+                    // Standard external merge sort
+                    ExternalSort externalSort = new ExternalSort(selectedFile.getAbsolutePath());
+                    externalSort.sort(value -> sb.append(value).append("\n"));
                 }
                 sortedTextArea.setText(sb.toString());
 
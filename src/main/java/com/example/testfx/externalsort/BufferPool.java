@@ -1,20 +1,110 @@
 package com.example.testfx.externalsort;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed set of page buffers plus the open file handles used to move pages between them and the run files.
+ *
+ * Each file keeps one {@link FileChannel} from its first read or write until {@link #closeFile(File)}, and all
+ * transfers are positional, so no per-page open, seek or close is needed.
+ *
+ * The last {@link SortConfig#getWriteBehindPages()} buffers are output buffers. When the current one fills up it
+ * is written by a background I/O thread while the next one is being filled. Inputs can likewise have pages read
+ * ahead with {@link #readPageAsync(File, int, int)}.
+ *
+ * The {@link SortConfig.IoStrategy} decides whether the pages use heap or direct buffers, and whether merge
+ * inputs are read through the pages at all or mapped with {@link #map(File, long, long)}.
+ *
+ * Temporary files come from the sort's {@link SpillManager}, which every append is charged to.
+ */
+public class BufferPool implements Closeable {
+    private static final int IO_THREADS = 2;
 
-public class BufferPool {
     private int size;
+    private int pageSize;
+    private final SortConfig.IoStrategy ioStrategy;
     private Page[] pool;
     private int outputBufferIndex;
+    private final int firstOutputBufferIndex;
+    private final Future<?>[] pendingWrites;
+    private final Map<File, OpenFile> openFiles = new ConcurrentHashMap<>();
+    private ExecutorService ioExecutor;
+    private final SpillManager spillManager;
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private static class OpenFile {
+        final FileChannel channel;
+        final boolean writable;
+        long appendPosition;
+
+        OpenFile(FileChannel channel, boolean writable) throws IOException {
+            this.channel = channel;
+            this.writable = writable;
+            this.appendPosition = channel.size();
+        }
+
+        /**
+         * Claims the next {@code length} bytes at the end of the file, so writes can complete in any order.
+         */
+        synchronized long reserve(int length) {
+            long position = appendPosition;
+            appendPosition += length;
+            return position;
+        }
+    }
+
+    BufferPool(SortConfig config, SpillManager spillManager) {
+        this(config.getNumBuffers(), config.getPageSize(), config.getWriteBehindPages(), config.getIoStrategy(),
+                spillManager);
+    }
 
-    BufferPool(int size) {
+    /**
+     * A pool of {@code size} pages, the last {@code writeBehindPages} of them for output. Used on its own by tasks
+     * that need private buffers outside any sort, such as {@link SortedFile}; such a pool creates no files.
+     */
+    BufferPool(int size, int pageSize, int writeBehindPages, SortConfig.IoStrategy ioStrategy) {
+        this(size, pageSize, writeBehindPages, ioStrategy, null);
+    }
+
+    private BufferPool(int size, int pageSize, int writeBehindPages, SortConfig.IoStrategy ioStrategy,
+                       SpillManager spillManager) {
+        this.spillManager = spillManager;
         this.size = size;
+        this.pageSize = pageSize;
+        this.ioStrategy = ioStrategy;
         pool = new Page[size];
-        outputBufferIndex = size - 1;
-        pool[outputBufferIndex] = new Page();
+        pendingWrites = new Future<?>[size];
+        firstOutputBufferIndex = size - writeBehindPages;
+        outputBufferIndex = firstOutputBufferIndex;
+    }
+
+    /**
+     * A pool over {@code size} of this pool's pages from {@code firstBufferIndex}, the last of them for output, with
+     * file handles and an I/O thread of its own. A task such as a key range of a parallel merge thus works within
+     * the sort's memory budget, and closing its files does not disturb other tasks reading the same runs. Nobody
+     * else may use the pages until the borrowing pool is closed.
+     */
+    BufferPool borrow(int firstBufferIndex, int size) {
+        BufferPool borrowed = new BufferPool(size, pageSize, 1, ioStrategy);
+        for (int i = 0; i < size; i++) {
+            borrowed.pool[i] = getPage(firstBufferIndex + i);
+        }
+        return borrowed;
     }
 
     public int getOutputBufferIndex() {
@@ -25,50 +115,288 @@ public class BufferPool {
         return size;
     }
 
-    public void addToOutputBuffer(File outFile, Integer field) throws IOException {
-        Page outPage = pool[outputBufferIndex];
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public SortConfig.IoStrategy getIoStrategy() {
+        return ioStrategy;
+    }
+
+    /**
+     * Bytes read through this pool so far, mapped regions included.
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Bytes written through this pool so far.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Adds I/O done outside the pool on its behalf, e.g. by a private pool or a direct channel transfer.
+     */
+    void countIo(long read, long written) {
+        bytesRead.add(read);
+        bytesWritten.add(written);
+    }
+
+    public int numPages(File file) {
+        return (int) Math.ceil((double) file.length() / pageSize);
+    }
+
+    /**
+     * The page held in a buffer. Pages are created on first use and recycled from then on.
+     */
+    public Page getPage(int bufferIndex) {
+        Page page = pool[bufferIndex];
+        if (page == null) {
+            page = newPage();
+            pool[bufferIndex] = page;
+        }
+        return page;
+    }
+
+    /**
+     * A page outside the pool, of the pool's page size and buffer kind, for tasks that do their own I/O.
+     */
+    public Page newPage() {
+        return new Page(pageSize, ioStrategy != SortConfig.IoStrategy.HEAP);
+    }
+
+    public void addToOutputBuffer(File outFile, int field) throws IOException {
+        Page outPage = getPage(outputBufferIndex);
+        if (outPage.isFull()) {
+            outPage = nextOutputBuffer(outFile);
+        }
+
         try {
-            outPage.addField(field);
+            outPage.addInt(field);
         } catch (PageFullException e) {
-            this.flushPage(outFile, outputBufferIndex);
-            Page newOutPage = pool[outputBufferIndex];
-            try {
-                newOutPage.addField(field);
-            } catch (PageFullException e2) {
-                throw new IOException("New page should not be full!");
-            }
+            throw new IOException("New page should not be full!");
+        }
+    }
+
+    /**
+     * Writes the partially filled output page and waits until every page written to the output so far is on disk.
+     */
+    public void flushOutput(File file) throws IOException {
+        flushPage(file, outputBufferIndex);
+        for (int i = firstOutputBufferIndex; i < size; i++) {
+            awaitWrite(i);
+        }
+    }
+
+    private Page nextOutputBuffer(File outFile) throws IOException {
+        if (firstOutputBufferIndex == size - 1) {
+            flushPage(outFile, outputBufferIndex);
+            return getPage(outputBufferIndex);
         }
+
+        flushPageAsync(outFile, outputBufferIndex);
+        outputBufferIndex = outputBufferIndex + 1 < size ? outputBufferIndex + 1 : firstOutputBufferIndex;
+        awaitWrite(outputBufferIndex);
+        return getPage(outputBufferIndex);
     }
 
     public Page readPage(File file, int pageNumber, int bufferIndex) throws IOException {
-        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-        byte[] rawPage = new byte[Page.PAGE_SIZE];
-        randomAccessFile.seek(pageNumber * Page.PAGE_SIZE);
-        int bytesRead = randomAccessFile.read(rawPage, 0, Page.PAGE_SIZE);
+        Page page = getPage(bufferIndex);
+        ByteBuffer buffer = page.buffer();
 
-        Page page = new Page(rawPage, bytesRead);
-        pool[bufferIndex] = page;
+        buffer.clear();
+        page.load(read(file, buffer, (long) pageNumber * pageSize));
         return page;
     }
 
-    public File flushPage(File file, int bufferIndex) throws IOException {
-        Page page = pool[bufferIndex];
-        final boolean APPEND = true;
-        FileOutputStream fos = new FileOutputStream(file, APPEND);
+    /**
+     * Reads a page on the I/O thread. The buffer must not be touched until the returned future completes.
+     */
+    public Future<Page> readPageAsync(File file, int pageNumber, int bufferIndex) {
+        getPage(bufferIndex);
+        return ioExecutor().submit(() -> readPage(file, pageNumber, bufferIndex));
+    }
 
-        fos.write(page.serialize());
-        fos.close();
+    public File flushPage(File file, int bufferIndex) throws IOException {
+        awaitWrite(bufferIndex);
+        Page page = getPage(bufferIndex);
+        append(file, page.serialize());
         clearBuffer(bufferIndex);
         return file;
     }
 
+    /**
+     * Writes a page on the I/O thread. The buffer is cleared once the write completes; {@link #awaitWrite(int)}
+     * must be called before it is reused.
+     */
+    public void flushPageAsync(File file, int bufferIndex) throws IOException {
+        awaitWrite(bufferIndex);
+        Page page = getPage(bufferIndex);
+        OpenFile openFile = open(file, true);
+        ByteBuffer serialized = page.serialize();
+        charge(file, serialized.remaining());
+        long position = openFile.reserve(serialized.remaining());
+
+        pendingWrites[bufferIndex] = ioExecutor().submit(() -> {
+            write(openFile.channel, serialized, position);
+            page.clear();
+            return null;
+        });
+    }
+
+    public void awaitWrite(int bufferIndex) throws IOException {
+        Future<?> pendingWrite = pendingWrites[bufferIndex];
+        if (pendingWrite != null) {
+            pendingWrites[bufferIndex] = null;
+            await(pendingWrite);
+        }
+    }
+
+    /**
+     * Waits for a background read or write and rethrows its failure.
+     */
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for I/O", e);
+        } catch (ExecutionException e) {
+            // A fork-join task wraps a checked exception, and hands it to another thread wrapped once more
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) throw (IOException) cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads from {@code position} until {@code buffer} is full or the file ends; returns the number of bytes read.
+     * Safe to call from several threads, which lets run generation workers share the input file's handle.
+     */
+    public int read(File file, ByteBuffer buffer, long position) throws IOException {
+        FileChannel channel = open(file, false).channel;
+        int bytesRead = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + bytesRead);
+            if (n < 0) break;
+            bytesRead += n;
+        }
+        this.bytesRead.add(bytesRead);
+        return bytesRead;
+    }
+
+    /**
+     * Appends the remaining bytes of {@code buffer} to the file. Safe to call from several threads.
+     */
+    public void append(File file, ByteBuffer buffer) throws IOException {
+        charge(file, buffer.remaining());
+        OpenFile openFile = open(file, true);
+        write(openFile.channel, buffer, openFile.reserve(buffer.remaining()));
+    }
+
+    /**
+     * Writes the remaining bytes of {@code buffer} at {@code position}, e.g. to rewrite part of a finished run.
+     * Unlike appends, this is not charged to the spill quota.
+     */
+    public void write(File file, ByteBuffer buffer, long position) throws IOException {
+        write(open(file, true).channel, buffer, position);
+    }
+
+    /**
+     * Maps {@code size} bytes of a file from {@code position} read-only. The mapping stays valid after the file's
+     * handle is closed and is released when the buffer is garbage collected.
+     */
+    public MappedByteBuffer map(File file, long position, long size) throws IOException {
+        bytesRead.add(size);
+        return open(file, false).channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        bytesWritten.add(buffer.remaining());
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Releases the handle of a file whose run has been fully written or fully consumed. The next access reopens it.
+     */
+    public void closeFile(File file) throws IOException {
+        OpenFile openFile = openFiles.remove(file);
+        if (openFile != null) {
+            openFile.channel.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < size; i++) {
+            try {
+                awaitWrite(i);
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+
+        synchronized (this) {
+            if (ioExecutor != null) {
+                ioExecutor.shutdown();
+                ioExecutor = null;
+            }
+        }
+
+        for (File file : new ArrayList<>(openFiles.keySet())) {
+            try {
+                closeFile(file);
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private synchronized OpenFile open(File file, boolean forWriting) throws IOException {
+        OpenFile openFile = openFiles.get(file);
+        if (openFile != null && (openFile.writable || !forWriting)) {
+            return openFile;
+        }
+
+        // A file first opened for reading has to be reopened before it can be appended to
+        closeFile(file);
+        FileChannel channel = forWriting
+                ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        openFile = new OpenFile(channel, forWriting);
+        openFiles.put(file, openFile);
+        return openFile;
+    }
+
+    private synchronized ExecutorService ioExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newFixedThreadPool(IO_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "externalsort-io");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return ioExecutor;
+    }
+
     public File createTempFile() throws IOException {
-        File tmpFile = File.createTempFile("externalsort", ".tmp");
-        tmpFile.deleteOnExit();
-        return tmpFile;
+        if (spillManager == null) throw new IllegalStateException("A private buffer pool creates no files");
+        return spillManager.createFile();
+    }
+
+    private void charge(File file, long bytes) throws IOException {
+        if (spillManager != null) spillManager.charge(file, bytes);
     }
 
     private void clearBuffer(int bufferIndex) {
-        this.pool[bufferIndex] = new Page();
+        getPage(bufferIndex).clear();
     }
 }
@@ -0,0 +1,81 @@
+package com.example.testfx.externalsort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Writes sorted fields to a byte channel in the run file format (big-endian ints), staging them in a page
+ * borrowed from the buffer pool so the output needs no memory beyond the pool's.
+ *
+ * Over a {@link FileChannel} the fields need not all pass through the sink: a {@link ParallelMerge} writes its key
+ * ranges straight to their positions in the file and then moves the sink past them with {@link #skip(RunSummary)}.
+ */
+class ChannelSink implements SortSink {
+    private final WritableByteChannel channel;
+    private final Page page;
+    private RunSummary summary;
+
+    ChannelSink(WritableByteChannel channel, Page page) {
+        this(channel, page, null);
+    }
+
+    /**
+     * A sink that also records the fields written in {@code summary}, unless it is null.
+     */
+    ChannelSink(WritableByteChannel channel, Page page, RunSummary summary) {
+        this.channel = channel;
+        this.page = page;
+        this.summary = summary;
+        page.clear();
+    }
+
+    /**
+     * The channel if the fields can be written to it at any position, otherwise null.
+     */
+    FileChannel getFileChannel() {
+        return channel instanceof FileChannel ? (FileChannel) channel : null;
+    }
+
+    /**
+     * Summary of everything written to the channel so far, or null if the sink keeps none.
+     */
+    RunSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Moves the file channel's position past {@code written}, fields that were written from that position on by
+     * someone else. The sink must have been flushed before they were.
+     */
+    void skip(RunSummary written) throws IOException {
+        FileChannel fileChannel = getFileChannel();
+        fileChannel.position(fileChannel.position() + written.getNumFields() * Page.FIELD_SIZE);
+        if (summary != null) summary = RunSummary.concat(List.of(summary, written));
+    }
+
+    @Override
+    public void addField(int field) throws IOException {
+        if (page.isFull()) {
+            flush();
+        }
+
+        try {
+            page.addInt(field);
+        } catch (PageFullException e) {
+            throw new IOException("New page should not be full!");
+        }
+        if (summary != null) summary.add(field);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ByteBuffer serialized = page.serialize();
+        while (serialized.hasRemaining()) {
+            channel.write(serialized);
+        }
+        page.clear();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.testfx.externalsort;
+
+/**
+ * Delta and frame-of-reference coding: the first value is stored as it is, followed by the differences between
+ * consecutive values bit-packed at the width of the largest one. In a sorted page the differences are small and
+ * non-negative, so dense keys take a few bits each; unsorted pages still round-trip, at up to 32 bits per value.
+ */
+public class DeltaForCodec implements RunCodec {
+
+    @Override
+    public int maxEncodedLength(int count) {
+        return count + 2;
+    }
+
+    @Override
+    public int encode(int[] values, int count, int[] words) {
+        if (count == 0) return 0;
+
+        int differences = 0;
+        for (int i = 1; i < count; i++) {
+            differences |= values[i] - values[i - 1];
+        }
+        int bits = Integer.SIZE - Integer.numberOfLeadingZeros(differences);
+        words[0] = values[0];
+        words[1] = bits;
+
+        int length = 2;
+        long pending = 0;
+        int pendingBits = 0;
+        for (int i = 1; i < count && bits > 0; i++) {
+            pending |= Integer.toUnsignedLong(values[i] - values[i - 1]) << pendingBits;
+            pendingBits += bits;
+            if (pendingBits >= Integer.SIZE) {
+                words[length++] = (int) pending;
+                pending >>>= Integer.SIZE;
+                pendingBits -= Integer.SIZE;
+            }
+        }
+        if (pendingBits > 0) {
+            words[length++] = (int) pending;
+        }
+        return length;
+    }
+
+    @Override
+    public void decode(int[] words, int length, int count, int[] values) {
+        if (count == 0) return;
+
+        int value = words[0];
+        int bits = words[1];
+        long mask = (1L << bits) - 1;
+        values[0] = value;
+
+        int word = 2;
+        long pending = 0;
+        int pendingBits = 0;
+        for (int i = 1; i < count; i++) {
+            if (pendingBits < bits) {
+                pending |= Integer.toUnsignedLong(words[word++]) << pendingBits;
+                pendingBits += Integer.SIZE;
+            }
+            value += (int) (pending & mask);
+            pending >>>= bits;
+            pendingBits -= bits;
+            values[i] = value;
+        }
+    }
+}
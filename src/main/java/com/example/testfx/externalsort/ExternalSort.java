@@ -1,144 +1,352 @@
 package com.example.testfx.externalsort;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 public class ExternalSort {
-    private int numBuffers = 3;
-    private BufferPool bufferPool;
+    public static final String DEFAULT_INPUT_FILENAME = "src/main/java/com/example/testfx/externalsort/small.txt";
+    private static final System.Logger LOG = System.getLogger(ExternalSort.class.getName());
 
-    private int pageSize = Page.PAGE_SIZE;
+    private SortConfig config;
+    private SpillManager spillManager;
+    private BufferPool bufferPool;
+    private Merger merger;
+    private File binaryCopy;
+    private final SortStats stats = new SortStats();
 
 
     private static ExternalSort _instance = new ExternalSort();
 
     private String inputFilename;
     public ExternalSort(String inputFilename) {
+        this(inputFilename, new SortConfig());
+    }
+
+    public ExternalSort(String inputFilename, SortConfig config) {
+        this(inputFilename, config, new LoserTreeMerger());
+    }
+
+    /**
+     * For subclasses that merge with a merger of their own from the start.
+     */
+    protected ExternalSort(String inputFilename, SortConfig config, Merger merger) {
         this.inputFilename = inputFilename;
-        this.bufferPool = new BufferPool(numBuffers);
+        this.config = config;
+        this.merger = merger;
+        this.spillManager = new SpillManager(config);
+        this.bufferPool = new BufferPool(config, spillManager);
+    }
 
+    public ExternalSort(SortConfig config) {
+        this(DEFAULT_INPUT_FILENAME, config);
     }
 
     public BufferPool getBufferPool() {
         return this.bufferPool;
     }
 
-    public ExternalSort() {
-        this.inputFilename = "src/main/java/com/example/testfx/externalsort/small.txt";
-        this.bufferPool = new BufferPool(numBuffers); // Add this line
+    public SortConfig getConfig() {
+        return this.config;
     }
 
-    public static void main(String args[]) throws IOException {
+    /**
+     * Where the temporary files of this sorter's sorts are written, and how much of the disk they currently take.
+     */
+    public SpillManager getSpillManager() {
+        return this.spillManager;
+    }
 
-        Page.PAGE_SIZE = _instance.pageSize;
+    public Merger getMerger() {
+        return this.merger;
+    }
 
-        _instance.sort();
+    public void setMerger(Merger merger) {
+        this.merger = merger;
     }
 
-    public List<Integer> sort() throws IOException {
-        // Remove the bufferPool initialization from here
-        File binaryFile = convertToBinary(new File(this.inputFilename));
+    /**
+     * Figures of the sort that is running or ran last. The same object is reused by every sort of this sorter.
+     */
+    public SortStats getStats() {
+        return this.stats;
+    }
 
-        List<Run> runList = splitIntoRuns(binaryFile);
+    public File getBinaryCopy() {
+        return this.binaryCopy;
+    }
 
-        while (runList.size() > 1) {
-            runList = doAMergeIteration(runList);
-        }
+    /**
+     * With pipelined ingestion, also writes the parsed input to {@code binaryCopy} as big-endian ints. Without it
+     * the input is converted to a temporary binary file anyway and this setting is ignored.
+     */
+    public void setBinaryCopy(File binaryCopy) {
+        this.binaryCopy = binaryCopy;
+    }
+
+    public ExternalSort() {
+        this(DEFAULT_INPUT_FILENAME);
+    }
 
-        Run finalSortedRun = runList.get(0);
-        RunIterator finalRun = finalSortedRun.iterator(0);
-        finalRun.open();
+    public static void main(String args[]) throws IOException {
+        _instance.sort();
+    }
 
+    /**
+     * Sorts the input into memory. Only suitable for inputs that fit in the heap; larger inputs should be streamed
+     * with one of the other {@code sort} methods.
+     */
+    public List<Integer> sort() throws IOException {
         List<Integer> sortedResults = new ArrayList<>();
-        while (finalRun.hasNext()) {
-            int value = finalRun.next();
-            sortedResults.add(value);
+        sortTo(sortedResults::add);
+        return sortedResults;
+    }
+
+    /**
+     * Sorts the input and passes each value, in order, to {@code consumer}.
+     */
+    public void sort(IntConsumer consumer) throws IOException {
+        sortTo(SortSink.of(consumer));
+    }
+
+    /**
+     * Sorts the input and writes it to {@code channel} as big-endian ints, the same layout as a run file.
+     */
+    public void sort(WritableByteChannel channel) throws IOException {
+        sortTo(new ChannelSink(channel, bufferPool.getPage(bufferPool.getOutputBufferIndex())));
+    }
+
+    /**
+     * Sorts the input into a binary file of big-endian ints, replacing {@code output} if it exists. The file's
+     * {@link RunSummary}, with the first key of every page, is written next to it for {@link SortedFile}.
+     */
+    public void sort(Path output) throws IOException {
+        RunSummary summary;
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ChannelSink sink = new ChannelSink(channel, bufferPool.getPage(bufferPool.getOutputBufferIndex()),
+                    new RunSummary(config.getPageSize()));
+            sortTo(sink);
+            summary = sink.getSummary();
         }
+        summary.save(RunSummary.fileFor(output.toFile()));
+    }
 
-        return sortedResults;
+    /**
+     * Sorts the input into {@code sink}. Intermediate passes stop as soon as the remaining runs fit in a single
+     * merge, and that last merge writes straight to the sink, so memory use is bounded by the buffer pool and the
+     * sorted result is never written as a run file.
+     */
+    public void sortTo(SortSink sink) throws IOException {
+        stats.reset();
+        try {
+            List<Run> runList;
+            if (config.isPipelinedIngest()) {
+                runList = stats.time(SortStats.Phase.INGEST, bufferPool,
+                        () -> ingestIntoRuns(new File(this.inputFilename), false));
+            } else {
+                File binaryFile = stats.time(SortStats.Phase.INGEST, bufferPool,
+                        () -> convertToBinary(new File(this.inputFilename)));
+                runList = stats.time(SortStats.Phase.RUN_GENERATION, bufferPool, () -> splitIntoRuns(binaryFile));
+                bufferPool.closeFile(binaryFile);
+                spillManager.delete(binaryFile);
+            }
+            mergeAll(runList, sink);
+        } finally {
+            bufferPool.close();
+            spillManager.deleteAll();
+        }
     }
-    private File convertToBinary(File file) throws IOException {
-        File binaryOutFile = bufferPool.createTempFile();
-        DataOutputStream dos = new DataOutputStream(new FileOutputStream(binaryOutFile));
-        BufferedReader br = new BufferedReader(new FileReader(file), Page.PAGE_SIZE);
-        String line;
 
-        while ((line = br.readLine()) != null) {
-            dos.writeInt(Integer.parseInt(line));
+    /**
+     * Merges the runs into {@code sink}: disjoint runs are concatenated, the rest merged down until one final merge
+     * can write to the sink.
+     */
+    void mergeAll(List<Run> runList, SortSink sink) throws IOException {
+        for (Run run : runList) {
+            stats.addRun(run.numFields());
         }
 
-        dos.close();
+        long comparisonsBefore = merger.getComparisons();
+        try {
+            stats.time(SortStats.Phase.MERGE, bufferPool, () -> {
+                MergePlanner planner = new MergePlanner(this);
+                List<Run> lastRuns = planner.mergeDown(planner.concatenateDisjoint(runList), config.getFanIn(),
+                        this::mergeRuns);
+
+                // The last merge writes straight to the sink
+                if (!lastRuns.isEmpty()) stats.addMerge(lastRuns.size());
+                mergeRuns(lastRuns, sink);
+                sink.flush();
+                deleteRuns(lastRuns);
+                return null;
+            });
+        } finally {
+            stats.addComparisons(merger.getComparisons() - comparisonsBefore);
+        }
+        LOG.log(System.Logger.Level.DEBUG, () -> "Sort finished: " + stats);
+    }
 
-        return binaryOutFile;
+    File convertToBinary(File file) throws IOException {
+        return new TextIngest(this, false).convertToBinary(file);
     }
 
-    private List<Run> splitIntoRuns(File file) throws IOException {
+    List<Run> splitIntoRuns(File file) throws IOException {
         List<Run> runList = new ArrayList<>();
         int outputBufferIndex = bufferPool.getOutputBufferIndex();
-        int numPages = (int) Math.ceil((double)file.length() / Page.PAGE_SIZE);
+        int numPages = bufferPool.numPages(file);
+
+        if (config.getRunGeneration() != SortConfig.RunGeneration.PAGE_SORT) {
+            return generateRuns(file, 0, numPages);
+        }
 
         for (int pageNo = 0; pageNo < numPages; pageNo++) {
             Page page = bufferPool.readPage(file, pageNo, outputBufferIndex);
             page.sort();
-            File tmpFile = bufferPool.flushPage(bufferPool.createTempFile(), outputBufferIndex);
-            Run sortedRun = new Run(tmpFile,this);
+            Run sortedRun = new Run(this);
+            sortedRun.append(page);
+            page.clear();
+            sortedRun.close();
             runList.add(sortedRun);
         }
 
         return runList;
     }
 
-    private List<Run> doAMergeIteration(List<Run> runList) throws IOException {
-        int k = bufferPool.getSize() - 1;
-        List<Run> mergedRunList = new ArrayList<>();
+    /**
+     * Generates runs from a range of pages with the configured multi-page strategy.
+     */
+    List<Run> generateRuns(File file, int fromPage, int toPage) throws IOException {
+        if (config.getRunGeneration() == SortConfig.RunGeneration.PARALLEL_CHUNK_SORT) {
+            return new ParallelRunGenerator(this).generateRuns(file, fromPage, toPage);
+        }
+        return new ReplacementSelection(this).generateRuns(file, fromPage, toPage);
+    }
 
-        while (runList.size() > 0) {
-            int toIndex = Math.min(k, runList.size());
-            List<Run> runsToMerge = new ArrayList<>(runList.subList(0, toIndex));
-            runList.subList(0, toIndex).clear();
+    /**
+     * Parses the text input straight into run generators. With {@link SortConfig.RunGeneration#PARALLEL_CHUNK_SORT}
+     * a large input is parsed in concurrent segments, each feeding a chunk sorter of its own.
+     */
+    List<Run> ingestIntoRuns(File textFile, boolean skipInvalidLines) throws IOException {
+        boolean concurrent = config.getRunGeneration() == SortConfig.RunGeneration.PARALLEL_CHUNK_SORT;
+        RunGenerator[] generators = new RunGenerator[Math.max(1, config.getParallelism())];
 
-            Run mergedRun = mergeRuns(runsToMerge);
-            mergedRunList.add(mergedRun);
-        }
+        new TextIngest(this, skipInvalidLines).ingest(textFile, concurrent, segment -> {
+            generators[segment] = newRunGenerator(segment);
+            return generators[segment];
+        }, binaryCopy);
 
-        return mergedRunList;
+        List<Run> runList = new ArrayList<>();
+        for (RunGenerator generator : generators) {
+            if (generator != null) runList.addAll(generator.runs());
+        }
+        return runList;
     }
 
-    private Run mergeRuns(List<Run> runsToMerge) throws IOException {
-        List<RunIterator> runIterators = new ArrayList<>();
-        Run mergedRun = new Run(this);
-        int bufferIndex = 0;
+    /**
+     * Run generator for one segment of the parsed input.
+     */
+    RunGenerator newRunGenerator(int segment) {
+        switch (config.getRunGeneration()) {
+            case PAGE_SORT:
+                return new PageRuns();
+            case PARALLEL_CHUNK_SORT:
+                return new ParallelRunGenerator(this).newChunkSorter();
+            default:
+                return new ReplacementSelection(this);
+        }
+    }
 
-        for (Run run: runsToMerge) {
-            RunIterator runIterator = run.iterator(bufferIndex);
-            runIterator.open();
-            runIterator.next(); // get initial value from each iterator ready
-            runIterators.add(runIterator);
-            bufferIndex++;
-        }
-
-        while (runIterators.size() > 0) {
-            RunIterator currentMinIterator = null;
-            int currentMin = Integer.MAX_VALUE;
-            for (RunIterator iterator: runIterators) {
-                if (iterator.current() < currentMin) {
-                    currentMin = iterator.current();
-                    currentMinIterator = iterator;
-                }
+    /**
+     * Page-sized runs generated from values pushed one at a time, sorted in the output buffer.
+     */
+    private class PageRuns implements RunGenerator {
+        private final List<Run> runs = new ArrayList<>();
+
+        @Override
+        public void addField(int field) throws IOException {
+            Page page = bufferPool.getPage(bufferPool.getOutputBufferIndex());
+            if (page.isFull()) {
+                writeRun();
             }
 
-            mergedRun.addField(currentMin);
+            try {
+                page.addInt(field);
+            } catch (PageFullException e) {
+                throw new IOException("New page should not be full!");
+            }
+        }
 
-            if (currentMinIterator != null && currentMinIterator.hasNext()) {
-                currentMinIterator.next();
-            } else {
-                runIterators.remove(currentMinIterator);
+        @Override
+        public void flush() throws IOException {
+            if (!bufferPool.getPage(bufferPool.getOutputBufferIndex()).isEmpty()) {
+                writeRun();
             }
         }
 
+        @Override
+        public List<Run> runs() {
+            return runs;
+        }
+
+        private void writeRun() throws IOException {
+            Page page = bufferPool.getPage(bufferPool.getOutputBufferIndex());
+            page.sort();
+            Run run = new Run(ExternalSort.this);
+            run.append(page);
+            page.clear();
+            run.close();
+            runs.add(run);
+        }
+    }
+
+    Run mergeRuns(List<Run> runsToMerge) throws IOException {
+        Run mergedRun = new Run(this);
+        mergeRuns(runsToMerge, mergedRun);
         mergedRun.flush();
+        mergedRun.close();
+        deleteRuns(runsToMerge);
 
         return mergedRun;
     }
-}
+
+    /**
+     * Deletes the files of runs that have been merged. Runs that are not spill files are kept.
+     */
+    void deleteRuns(List<Run> runs) {
+        for (Run run : runs) {
+            spillManager.delete(run.getFile());
+        }
+    }
+
+    void mergeRuns(List<Run> runsToMerge, SortSink output) throws IOException {
+        if (config.isParallelMerge() && new ParallelMerge(this).merge(runsToMerge, output)) {
+            return;
+        }
+
+        List<RunIterator> runIterators = new ArrayList<>();
+        int bufferIndex = 0;
+        int readAheadPages = config.getReadAheadPages();
+
+        try {
+            for (Run run: runsToMerge) {
+                RunIterator runIterator = run.iterator(bufferIndex * readAheadPages, readAheadPages);
+                runIterators.add(runIterator);
+                runIterator.open();
+                bufferIndex++;
+            }
+            merger.merge(runIterators, output);
+        } catch (UncheckedIOException e) {
+            // A run could not be read
+            throw e.getCause();
+        } finally {
+            // Also after a failure, so that no file handle outlives the merge
+            RunIterator.closeAll(runIterators);
+        }
+    }
+}
\ No newline at end of file
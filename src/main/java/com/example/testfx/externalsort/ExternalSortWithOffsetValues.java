@@ -1,14 +1,27 @@
 package com.example.testfx.externalsort;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.zip.CRC32C;
 
 public class ExternalSortWithOffsetValues extends ExternalSort {
-    private int numBuffers = 3;
-    private int pageSize = Page.PAGE_SIZE;
+    private static final System.Logger LOG = System.getLogger(ExternalSortWithOffsetValues.class.getName());
+
     private int offset = 0;
     private String inputFilename = "./data/small.txt";
-    private BufferPool bufferPool;
+
+    public ExternalSortWithOffsetValues() {
+        this(new SortConfig());
+    }
+
+    public ExternalSortWithOffsetValues(SortConfig config) {
+        super(DEFAULT_INPUT_FILENAME, config, new LoserTreeMerger(true));
+    }
 
     public static void main(String args[]) throws IOException {
         ExternalSortWithOffsetValues sorter = new ExternalSortWithOffsetValues();
@@ -23,536 +36,248 @@ public class ExternalSortWithOffsetValues extends ExternalSort {
         this.offset = offset;
     }
 
-    /**
-     * Automatically detects the maximum offset (number of already-sorted pages)
-     * @param file The input file
-     * @return The number of pages that are already sorted
-     */
-    private int detectOffset(File file) throws IOException {
-        int detectedOffset = 0;
-        int outputBufferIndex = bufferPool.getOutputBufferIndex();
-        int numPages = numPages(file);
-
-        Integer lastValue = null;
-        boolean stillSorted = true;
-
-        // Check each page to see if it's sorted and if it continues the sort order
-        for (int pageNo = 0; pageNo < numPages && stillSorted; pageNo++) {
-            Page page = bufferPool.readPage(file, pageNo, outputBufferIndex);
-            Iterator<Integer> it = page.iterator();
-
-            // Check if this page is internally sorted and continues from previous page
-            Integer prevValue = lastValue;
-            while (it.hasNext() && stillSorted) {
-                Integer current = it.next();
-                if (prevValue != null && current < prevValue) {
-                    stillSorted = false;
-                    break;
+    @Override
+    public void sortTo(SortSink sink) throws IOException {
+        SortStats stats = getStats();
+        stats.reset();
+        try {
+            List<Run> runList;
+            if (getConfig().isPipelinedIngest()) {
+                // Natural runs are found while parsing
+                runList = stats.time(SortStats.Phase.INGEST, getBufferPool(),
+                        () -> ingestIntoRuns(new File(this.inputFilename), true));
+            } else {
+                File binaryFile = stats.time(SortStats.Phase.INGEST, getBufferPool(),
+                        () -> convertToBinary(new File(this.inputFilename)));
+
+                // A preset offset covering the whole input is trusted without reading it
+                int totalPages = numPages(binaryFile);
+                if (offset >= totalPages) {
+                    copySortedFile(binaryFile, sink);
+                    sink.flush();
+                    return;
                 }
-                prevValue = current;
-            }
 
-            if (stillSorted) {
-                detectedOffset++;
-                lastValue = prevValue;  // Save the last value for comparison with next page
+                runList = stats.time(SortStats.Phase.RUN_GENERATION, getBufferPool(), () -> splitIntoRuns(binaryFile));
+                getBufferPool().closeFile(binaryFile);
+                getSpillManager().delete(binaryFile);
             }
+            // Sorted prefixes and other disjoint runs are concatenated instead of merged
+            mergeAll(runList, sink);
+        } finally {
+            getBufferPool().close();
+            getSpillManager().deleteAll();
         }
-
-        System.out.println("Detected offset: " + detectedOffset + " pages");
-        return detectedOffset;
     }
 
-    @Override
-    public List<Integer> sort() throws IOException {
-
-        bufferPool = new BufferPool(numBuffers);
-        File binaryFile = convertToBinary(new File(this.inputFilename));
-
-        if (offset == 0) {
-            offset = detectOffset(binaryFile);
+    /**
+     * Sorts the input into {@code sink}, reusing the work of the previous call on the same input. The sorted values
+     * are kept with their {@link RunSummary} and a {@link SortIndex} in the {@link #stateDirectory()}, never next to
+     * the input. If the input has only grown since, just the appended lines are sorted. A tail whose values all sort
+     * after the previous output is appended to it with channel transfers; otherwise the last merge takes the previous
+     * output as one more run.
+     *
+     * @return the number of rows taken over from the previous output, 0 if everything was sorted again
+     */
+    public long sortIncrementally(SortSink sink) throws IOException {
+        File input = new File(this.inputFilename);
+        File stateDirectory = stateDirectory();
+        Files.createDirectories(stateDirectory.toPath());
+        File indexFile = SortIndex.fileFor(input, stateDirectory);
+        File output = SortIndex.outputFor(input, stateDirectory);
+        File nextOutput = new File(output.getPath() + ".tmp");
+        long inputLength = input.length();
+
+        // The checksum of the old prefix is extended over the tail to give the next index's checksum
+        SortIndex index = SortIndex.load(indexFile);
+        CRC32C checksum = new CRC32C();
+        if (index != null && index.isUsableFor(input)) {
+            SortIndex.update(checksum, input, 0, index.getSortedBytes());
+            if (checksum.getValue() != index.getChecksum()) {
+                LOG.log(System.Logger.Level.DEBUG, "Sorted prefix of {0} has changed - sorting all of it", input);
+                index = null;
+                checksum.reset();
+            }
+        } else {
+            index = null;
         }
+        long sortedBytes = index == null ? 0 : index.getSortedBytes();
+        long sortedRows = index == null ? 0 : index.getSortedRows();
+        SortIndex.update(checksum, input, sortedBytes, inputLength);
+        LOG.log(System.Logger.Level.DEBUG, "Reusing {0} sorted rows, sorting {1} appended bytes", sortedRows,
+                inputLength - sortedBytes);
+
+        SortStats stats = getStats();
+        stats.reset();
+        File previousOutput = index == null ? null : index.getOutput();
+        long tailRows;
+        RunSummary outputSummary;
+        long comparisonsBefore = getMerger().getComparisons();
+        try {
+            int fieldsPerPage = getConfig().getPageSize() / Page.FIELD_SIZE;
+            RunGenerator generator = new NaturalRuns(this, super.newRunGenerator(0), fieldsPerPage, 0);
+            tailRows = stats.time(SortStats.Phase.INGEST, getBufferPool(), () -> {
+                long rows = new TextIngest(this, true).parse(input, sortedBytes, inputLength, generator);
+                generator.flush();
+                return rows;
+            });
+            List<Run> tailRunList = generator.runs();
+            for (Run run : tailRunList) {
+                stats.addRun(run.numFields());
+            }
 
-        int totalPages = numPages(binaryFile);
-        if (offset >= totalPages) {
-            return readSortedFile(binaryFile);
-        }
+            outputSummary = stats.time(SortStats.Phase.MERGE, getBufferPool(), () -> {
+                MergePlanner planner = new MergePlanner(this);
+                List<Run> runList = planner.concatenateDisjoint(tailRunList);
+                Run previous = previousOutput == null ? null : new Run(previousOutput, this);
 
-        List<Run> runList = splitIntoRuns(binaryFile);
+                if (previous != null && runList.isEmpty()) {
+                    // Nothing was appended, so the previous output stays as it is
+                    copySortedFile(previousOutput, sink);
+                    sink.flush();
+                    return null;
+                }
+                if (previous != null && runList.size() == 1
+                        && (previous.numFields() == 0 || runList.get(0).min() >= previous.max())) {
+                    RunSummary summary = append(List.of(previous, runList.get(0)), nextOutput);
+                    copySortedFile(nextOutput, sink);
+                    sink.flush();
+                    return summary;
+                }
 
-        while (runList.size() > 1) {
-            runList = doAMergeIteration(runList);
-        }
+                // Leave an input of the last merge for the previous output
+                int tailRuns = previous == null ? getConfig().getFanIn() : getConfig().getFanIn() - 1;
+                runList = planner.mergeDown(runList, tailRuns, this::mergeRuns);
+                if (previous != null) {
+                    runList.add(previous);
+                }
 
-        if (runList.isEmpty()) {
-            return new ArrayList<>();
+                nextOutput.delete();
+                nextOutput.createNewFile();
+                Run result = new Run(nextOutput, this);
+                SortSink resultAndSink = result.andThen(sink);
+                stats.addMerge(runList.size());
+                mergeRuns(runList, resultAndSink);
+                resultAndSink.flush();
+                result.close();
+                // The previous output is not a spill file and survives until it is replaced below
+                deleteRuns(runList);
+                return result.summary();
+            });
+        } finally {
+            stats.addComparisons(getMerger().getComparisons() - comparisonsBefore);
+            getBufferPool().close();
+            getSpillManager().deleteAll();
         }
-
-        Run finalSortedRun = runList.get(0);
-        RunIterator finalRun = finalSortedRun.iterator(0);
-        finalRun.open();
-
-        List<Integer> sortedResults = new ArrayList<>();
-        while (finalRun.hasNext()) {
-            sortedResults.add(finalRun.next());
+        LOG.log(System.Logger.Level.DEBUG, () -> "Incremental sort finished: " + stats);
+        if (outputSummary != null) {
+            Files.move(nextOutput.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            outputSummary.save(RunSummary.fileFor(output));
         }
 
-        return sortedResults;
+        // A last line without its newline may still be growing, so then nothing is kept for next time
+        if (endsWithNewline(input, inputLength)) {
+            new SortIndex(inputLength, sortedRows + tailRows, checksum.getValue(), output).save(indexFile);
+        } else {
+            indexFile.delete();
+        }
+        return sortedRows;
     }
 
-    // Helper method to read an already sorted file
-    private List<Integer> readSortedFile(File file) throws IOException {
-        List<Integer> results = new ArrayList<>();
-        int numPages = numPages(file);
-        int outputBufferIndex = bufferPool.getOutputBufferIndex();
+    /**
+     * Directory holding the files {@link #sortIncrementally(SortSink)} keeps from one call to the next: the first
+     * spill directory, or the system's temporary directory if none is configured.
+     */
+    public File stateDirectory() {
+        List<File> spillDirectories = getConfig().getSpillDirectories();
+        return spillDirectories.isEmpty() ? new File(System.getProperty("java.io.tmpdir")) : spillDirectories.get(0);
+    }
 
-        for (int pageNo = 0; pageNo < numPages; pageNo++) {
-            Page page = bufferPool.readPage(file, pageNo, outputBufferIndex);
-            Iterator<Integer> it = page.iterator();
-            while (it.hasNext()) {
-                results.add(it.next());
+    /**
+     * Lays the runs end to end in {@code target} with channel transfers and returns the summary of the result.
+     */
+    private RunSummary append(List<Run> runs, File target) throws IOException {
+        List<RunSummary> parts = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Run run : runs) {
+                parts.add(run.summary());
+                try (FileChannel in = FileChannel.open(run.getFile().toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long position = 0; position < size; ) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                    getBufferPool().countIo(size, size);
+                }
             }
         }
-
-        return results;
+        return RunSummary.concat(parts);
     }
 
-    private File convertToBinary(File file) throws IOException {
-        File binaryOutFile = bufferPool.createTempFile();
-        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(binaryOutFile));
-             BufferedReader br = new BufferedReader(new FileReader(file), Page.PAGE_SIZE)) {
-
-            String line;
-
-            // For all lines in the file
-            while ((line = br.readLine()) != null) {
-                try {
-                    dos.writeInt(Integer.parseInt(line.trim()));
-                } catch (NumberFormatException e) {
-                    System.err.println("Warning: Skipping non-numeric line: " + line);
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error converting to binary: " + e.getMessage());
-            throw e;
+    private static boolean endsWithNewline(File file, long length) throws IOException {
+        if (length == 0) return true;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            channel.read(lastByte, length - 1);
+            return lastByte.get(0) == '\n';
         }
+    }
 
-        return binaryOutFile;
+    /**
+     * Wraps each segment's run generator so natural runs bypass it. The first {@code offset} pages of the input, if
+     * preset, are taken as sorted without checking.
+     */
+    @Override
+    RunGenerator newRunGenerator(int segment) {
+        int fieldsPerPage = getConfig().getPageSize() / Page.FIELD_SIZE;
+        long trustedFields = segment == 0 ? (long) offset * fieldsPerPage : 0;
+        return new NaturalRuns(this, super.newRunGenerator(segment), fieldsPerPage, trustedFields);
     }
 
-    private List<Run> splitIntoRuns(File file) throws IOException {
-        List<Run> runList = new ArrayList<>();
-        int outputBufferIndex = bufferPool.getOutputBufferIndex();
+    // Helper method to pass on an already sorted file
+    private void copySortedFile(File file, SortSink sink) throws IOException {
         int numPages = numPages(file);
+        final int INPUT_BUFFER_INDEX = 0;
 
-        // Process all pages
         for (int pageNo = 0; pageNo < numPages; pageNo++) {
-            try {
-                // Read the page
-                Page page = bufferPool.readPage(file, pageNo, outputBufferIndex);
-
-                // If using offset and this is within the offset range, don't resort
-                if (pageNo < offset) {
-                    // Skip sorting - these pages are already sorted
-                    System.out.println("Page " + pageNo + " is within offset range - skipping sort");
-                } else {
-                    // For pages beyond offset, always sort
-                    System.out.println("Page " + pageNo + " is beyond offset - sorting");
-                    page.sort();
-                }
-
-                // Flush the page to a temp file
-                File tmpFile = bufferPool.flushPage(bufferPool.createTempFile(), outputBufferIndex);
-                Run sortedRun = new Run(tmpFile, this);
-                runList.add(sortedRun);
-            } catch (IOException e) {
-                System.err.println("Error processing page " + pageNo + ": " + e.getMessage());
-                // Skip this page rather than failing entirely
+            Page page = getBufferPool().readPage(file, pageNo, INPUT_BUFFER_INDEX);
+            for (int i = 0; i < page.size(); i++) {
+                sink.addField(page.getInt(i));
             }
         }
-
-        return runList;
     }
 
-    private List<Run> doAMergeIteration(List<Run> runList) throws IOException {
-        int k = numBuffers - 1;
-        List<Run> mergedRunList = new ArrayList<>();
-
-        // If we have offset and this is the first iteration (original number of runs equals number of pages)
-        if (offset > 0 && runList.size() == numPages(new File(this.inputFilename))) {
-            // Take advantage of already sorted runs
-            System.out.println("First merge iteration with offset = " + offset);
-
-            // The offset pages form a single already-sorted sequence
-            // We can either concatenate them or merge them as one logical unit
-            if (offset > 1) {
-                List<Run> offsetRuns = new ArrayList<>(runList.subList(0, Math.min(offset, runList.size())));
-                List<Run> otherRuns = new ArrayList<>(runList.subList(Math.min(offset, runList.size()), runList.size()));
-
-                // Merge offset runs first (they should be sequential)
-                Run mergedOffsetRun = null;
-                if (!offsetRuns.isEmpty()) {
-                    mergedOffsetRun = mergeRuns(offsetRuns);
-                    mergedRunList.add(mergedOffsetRun);
-                }
-
-                // Merge other runs normally
-                while (!otherRuns.isEmpty()) {
-                    int toIndex = Math.min(k, otherRuns.size());
-                    List<Run> runsToMerge = new ArrayList<>(otherRuns.subList(0, toIndex));
-                    otherRuns.subList(0, toIndex).clear();
-
-                    Run mergedRun = mergeRuns(runsToMerge);
-                    mergedRunList.add(mergedRun);
-                }
-            } else {
-                // Standard merge approach if offset is just 1 page
-                while (!runList.isEmpty()) {
-                    int toIndex = Math.min(k, runList.size());
-                    if (toIndex <= 0) break;
-
-                    List<Run> runsToMerge = new ArrayList<>(runList.subList(0, toIndex));
-                    runList.subList(0, toIndex).clear();
-
-                    Run mergedRun = mergeRuns(runsToMerge);
-                    mergedRunList.add(mergedRun);
-                }
-            }
-        } else {
-            // Standard merge approach for later iterations
-            System.out.println("Standard merge iteration");
-            while (!runList.isEmpty()) {
-                int toIndex = Math.min(k, runList.size());
-                if (toIndex <= 0) break;
-
-                List<Run> runsToMerge = new ArrayList<>(runList.subList(0, toIndex));
-                runList.subList(0, toIndex).clear();
-
-                Run mergedRun = mergeRuns(runsToMerge);
-                mergedRunList.add(mergedRun);
-            }
+    @Override
+    File convertToBinary(File file) throws IOException {
+        try {
+            // Non-numeric lines are skipped with a warning
+            return new TextIngest(this, true).convertToBinary(file);
+        } catch (IOException e) {
+            LOG.log(System.Logger.Level.WARNING, "Error converting to binary: {0}", e.getMessage());
+            throw e;
         }
-
-        return mergedRunList;
     }
 
-    // Helper method to calculate number of pages in a file
-//    private int numPages(File file) {
-//        return (int) Math.ceil((double) file.length() / Page.PAGE_SIZE);
-//    }
-
-    private Run mergeRuns(List<Run> runsToMerge) throws IOException {
-        List<RunIterator> runIterators = new ArrayList<>();
-        Run mergedRun = new Run(this);
-        int bufferIndex = 0;
-
-        // Ensure we don't exceed available buffers
-        int maxBuffers = numBuffers - 1; // Reserve one for output
-        if (runsToMerge.size() > maxBuffers) {
-            runsToMerge = runsToMerge.subList(0, maxBuffers);
-        }
-
-        for (Run run : runsToMerge) {
-            if (bufferIndex >= maxBuffers) {
-                System.err.println("Buffer index out of bounds. Skipping run.");
-                continue;
-            }
-
-            try {
-                RunIterator runIterator = run.iterator(bufferIndex);
-                runIterator.open();
-
-                // Only add iterators that have values
-                if (runIterator.hasNext()) {
-                    runIterator.next(); // Initialize current
-                    runIterators.add(runIterator);
-                }
-                bufferIndex++;
-            } catch (Exception e) {
-                System.err.println("Error initializing run iterator: " + e.getMessage());
-            }
-        }
-
-        while (!runIterators.isEmpty()) {
-            RunIterator currentMinIterator = null;
-            int currentMin = Integer.MAX_VALUE;
-
-            for (RunIterator iterator : runIterators) {
-                if (iterator.current() != null && iterator.current() < currentMin) {
-                    currentMin = iterator.current();
-                    currentMinIterator = iterator;
-                }
-            }
-
-            if (currentMinIterator == null) {
-                break; // No valid current values found
-            }
-
-            try {
-                mergedRun.addField(currentMin);
+    @Override
+    List<Run> splitIntoRuns(File file) throws IOException {
+        // Read through an input buffer so the output buffer stays free for run generation
+        final int INPUT_BUFFER_INDEX = 0;
+        int numPages = numPages(file);
 
-                if (currentMinIterator.hasNext()) {
-                    currentMinIterator.next();
-                } else {
-                    runIterators.remove(currentMinIterator);
-                }
-            } catch (Exception e) {
-                System.err.println("Error during merge: " + e.getMessage());
-                runIterators.remove(currentMinIterator); // Remove problematic iterator
+        // Natural runs become runs as they are; everything else goes through the configured run generator
+        RunGenerator generator = newRunGenerator(0);
+        for (int pageNo = 0; pageNo < numPages; pageNo++) {
+            Page page = getBufferPool().readPage(file, pageNo, INPUT_BUFFER_INDEX);
+            for (int i = 0; i < page.size(); i++) {
+                generator.addField(page.getInt(i));
             }
         }
-
-        mergedRun.flush();
-        return mergedRun;
+        generator.flush();
+        return generator.runs();
     }
 
     // Helper method to calculate number of pages in a file
     private int numPages(File file) {
-        return (int) Math.ceil((double) file.length() / Page.PAGE_SIZE);
+        return getBufferPool().numPages(file);
     }
 }
-//package com.example.testfx.externalsort;
-//
-//import java.io.*;
-//import java.util.*;
-//
-//public class ExternalSortWithOffsetValues extends ExternalSort {
-//    private int numBuffers = 3;
-//    private int pageSize = Page.PAGE_SIZE;
-//    private int offset = 0;
-//    private String inputFilename = "./data/small.txt";
-//    private BufferPool bufferPool;
-//
-//    public static void main(String args[]) throws IOException {
-//        ExternalSortWithOffsetValues sorter = new ExternalSortWithOffsetValues();
-//        sorter.sort();
-//    }
-//
-//
-//    public void setInputFilename(String inputFilename) {
-//        this.inputFilename = inputFilename;
-//    }
-//
-//    public void setOffset(int offset) {
-//        this.offset = offset;
-//    }
-//
-//    @Override
-//    public List<Integer> sort() throws IOException {
-//        bufferPool = new BufferPool(numBuffers);
-//        File binaryFile = convertToBinary(new File(this.inputFilename));
-//
-//        // If entire file is sorted (offset covers all pages)
-//        int totalPages = numPages(binaryFile);
-//        if (offset >= totalPages) {
-//            // Just read the file and return it - it's already sorted
-//            return readSortedFile(binaryFile);
-//        }
-//
-//        List<Run> runList = splitIntoRuns(binaryFile);
-//
-//        // Merge phase
-//        while (runList.size() > 1) {
-//            runList = doAMergeIteration(runList);
-//        }
-//
-//        // Get the final sorted run
-//        if (runList.isEmpty()) {
-//            return new ArrayList<>();
-//        }
-//
-//        Run finalSortedRun = runList.get(0);
-//        RunIterator finalRun = finalSortedRun.iterator(0);
-//        finalRun.open();
-//
-//        List<Integer> sortedResults = new ArrayList<>();
-//        while (finalRun.hasNext()) {
-//            sortedResults.add(finalRun.next());
-//        }
-//
-//        return sortedResults;
-//    }
-//
-//    // Helper method to read an already sorted file
-//    private List<Integer> readSortedFile(File file) throws IOException {
-//        List<Integer> results = new ArrayList<>();
-//        int numPages = numPages(file);
-//        int outputBufferIndex = bufferPool.getOutputBufferIndex();
-//
-//        for (int pageNo = 0; pageNo < numPages; pageNo++) {
-//            Page page = bufferPool.readPage(file, pageNo, outputBufferIndex);
-//            Iterator<Integer> it = page.iterator();
-//            while (it.hasNext()) {
-//                results.add(it.next());
-//            }
-//        }
-//
-//        return results;
-//    }
-//
-//    private File convertToBinary(File file) throws IOException {
-//        File binaryOutFile = bufferPool.createTempFile();
-//        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(binaryOutFile));
-//             BufferedReader br = new BufferedReader(new FileReader(file), Page.PAGE_SIZE)) {
-//
-//            String line;
-//
-//            // For all lines in the file
-//            while ((line = br.readLine()) != null) {
-//                try {
-//                    dos.writeInt(Integer.parseInt(line.trim()));
-//                } catch (NumberFormatException e) {
-//                    System.err.println("Warning: Skipping non-numeric line: " + line);
-//                }
-//            }
-//        } catch (IOException e) {
-//            System.err.println("Error converting to binary: " + e.getMessage());
-//            throw e;
-//        }
-//
-//        return binaryOutFile;
-//    }
-//
-//    private List<Run> splitIntoRuns(File file) throws IOException {
-//        List<Run> runList = new ArrayList<>();
-//        int outputBufferIndex = bufferPool.getOutputBufferIndex();
-//        int numPages = (int) Math.ceil((double) file.length() / Page.PAGE_SIZE);
-//
-//        // Process all pages
-//        for (int pageNo = 0; pageNo < numPages; pageNo++) {
-//            try {
-//                // Read the page
-//                Page page = bufferPool.readPage(file, pageNo, outputBufferIndex);
-//
-//                // If using offset and this is within the offset range, we'll consider it
-//                // as "pre-sorted" but still need to include it in our sorting process
-//                if (pageNo < offset) {
-//                    // Still sort the page - we'll use offset later to optimize merges
-//                    page.sort();
-//                } else {
-//                    // For pages beyond offset, always sort
-//                    page.sort();
-//                }
-//
-//                // Flush the page to a temp file
-//                File tmpFile = bufferPool.flushPage(bufferPool.createTempFile(), outputBufferIndex);
-//                Run sortedRun = new Run(tmpFile, this);
-//                runList.add(sortedRun);
-//            } catch (IOException e) {
-//                System.err.println("Error processing page " + pageNo + ": " + e.getMessage());
-//                // Skip this page rather than failing entirely
-//            }
-//        }
-//
-//        return runList;
-//    }
-//
-//    private List<Run> doAMergeIteration(List<Run> runList) throws IOException {
-//        int k = numBuffers - 1;
-//        List<Run> mergedRunList = new ArrayList<>();
-//
-//        // If we have offset and this is the first iteration
-//        if (offset > 0 && runList.size() == numPages(new File(this.inputFilename))) {
-//            // Take advantage of already sorted runs
-//            // First, directly transfer offset runs to output
-//            List<Run> offsetRuns = new ArrayList<>(runList.subList(0, Math.min(offset, runList.size())));
-//            List<Run> otherRuns = new ArrayList<>(runList.subList(Math.min(offset, runList.size()), runList.size()));
-//
-//            // Add offset runs directly to merged list - these are already sorted
-//            mergedRunList.addAll(offsetRuns);
-//
-//            // Merge other runs normally
-//            while (!otherRuns.isEmpty()) {
-//                int toIndex = Math.min(k, otherRuns.size());
-//                List<Run> runsToMerge = new ArrayList<>(otherRuns.subList(0, toIndex));
-//                otherRuns.subList(0, toIndex).clear();
-//
-//                Run mergedRun = mergeRuns(runsToMerge);
-//                mergedRunList.add(mergedRun);
-//            }
-//        } else {
-//            // After first iteration, or if no offset, use standard merge
-//            while (!runList.isEmpty()) {
-//                int toIndex = Math.min(k, runList.size());
-//                if (toIndex <= 0) break;
-//
-//                List<Run> runsToMerge = new ArrayList<>(runList.subList(0, toIndex));
-//                runList.subList(0, toIndex).clear();
-//
-//                Run mergedRun = mergeRuns(runsToMerge);
-//                mergedRunList.add(mergedRun);
-//            }
-//        }
-//
-//        return mergedRunList;
-//    }
-//
-//    // Helper method to calculate number of pages in a file
-//    private int numPages(File file) {
-//        return (int) Math.ceil((double) file.length() / Page.PAGE_SIZE);
-//    }
-//
-//    private Run mergeRuns(List<Run> runsToMerge) throws IOException {
-//        List<RunIterator> runIterators = new ArrayList<>();
-//        Run mergedRun = new Run(this);
-//        int bufferIndex = 0;
-//
-//        // Ensure we don't exceed available buffers
-//        int maxBuffers = numBuffers - 1; // Reserve one for output
-//        if (runsToMerge.size() > maxBuffers) {
-//            runsToMerge = runsToMerge.subList(0, maxBuffers);
-//        }
-//
-//        for (Run run : runsToMerge) {
-//            if (bufferIndex >= maxBuffers) {
-//                System.err.println("Buffer index out of bounds. Skipping run.");
-//                continue;
-//            }
-//
-//            try {
-//                RunIterator runIterator = run.iterator(bufferIndex);
-//                runIterator.open();
-//
-//                // Only add iterators that have values
-//                if (runIterator.hasNext()) {
-//                    runIterator.next(); // Initialize current
-//                    runIterators.add(runIterator);
-//                }
-//                bufferIndex++;
-//            } catch (Exception e) {
-//                System.err.println("Error initializing run iterator: " + e.getMessage());
-//            }
-//        }
-//
-//        while (!runIterators.isEmpty()) {
-//            RunIterator currentMinIterator = null;
-//            int currentMin = Integer.MAX_VALUE;
-//
-//            for (RunIterator iterator : runIterators) {
-//                if (iterator.current() != null && iterator.current() < currentMin) {
-//                    currentMin = iterator.current();
-//                    currentMinIterator = iterator;
-//                }
-//            }
-//
-//            if (currentMinIterator == null) {
-//                break; // No valid current values found
-//            }
-//
-//            try {
-//                mergedRun.addField(currentMin);
-//
-//                if (currentMinIterator.hasNext()) {
-//                    currentMinIterator.next();
-//                } else {
-//                    runIterators.remove(currentMinIterator);
-//                }
-//            } catch (Exception e) {
-//                System.err.println("Error during merge: " + e.getMessage());
-//                runIterators.remove(currentMinIterator); // Remove problematic iterator
-//            }
-//        }
-//
-//        mergedRun.flush();
-//        return mergedRun;
-//    }
-//}
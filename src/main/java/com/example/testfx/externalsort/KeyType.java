@@ -0,0 +1,222 @@
+package com.example.testfx.externalsort;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Type of a sort key, and how its text form is turned into a normalized binary key.
+ *
+ * Normalized keys compare as unsigned byte strings (see {@link java.util.Arrays#compareUnsigned(byte[], int, int,
+ * byte[], int, int)}) in the same order as the values they encode, with a key that is a prefix of another sorting
+ * first. The sort therefore never has to know the key type once the records are loaded.
+ */
+public abstract class KeyType {
+
+    /** 32-bit signed integers, 4 bytes. */
+    public static final KeyType INT = new IntegerKey(Integer.BYTES);
+
+    /** 64-bit signed integers, 8 bytes. */
+    public static final KeyType LONG = new IntegerKey(Long.BYTES);
+
+    /** IEEE doubles in {@link Double#compare(double, double)} order, 8 bytes. */
+    public static final KeyType DOUBLE = new DoubleKey();
+
+    /** Strings in code point order: UTF-8 bytes compare as unsigned bytes in that order already. */
+    public static final KeyType UTF8 = new Utf8Key();
+
+    /**
+     * Raw bytes cut or zero-padded to {@code width}.
+     */
+    public static KeyType fixedBytes(int width) {
+        if (width < 1) throw new IllegalArgumentException("Key width must be positive");
+        return new FixedBytesKey(width);
+    }
+
+    /**
+     * Writes the normalized form of the text in {@code text[from, to)} to {@code out} at {@code outOffset} and
+     * returns its length, at most {@link #maxNormalizedLength(int)}.
+     *
+     * @throws NumberFormatException if the text is not a value of this type
+     */
+    public abstract int normalize(byte[] text, int from, int to, byte[] out, int outOffset);
+
+    /**
+     * Upper bound on the normalized length of a value of {@code textLength} bytes of text.
+     */
+    public abstract int maxNormalizedLength(int textLength);
+
+    private static final class IntegerKey extends KeyType {
+        private final int width;
+
+        IntegerKey(int width) {
+            this.width = width;
+        }
+
+        @Override
+        public int normalize(byte[] text, int from, int to, byte[] out, int outOffset) {
+            long value = parseLong(text, from, to);
+            if (width == Integer.BYTES && (int) value != value) throw notA("an int", text, from, to);
+            // Flipping the sign bit makes two's complement order unsigned
+            writeLong(value ^ (1L << (width * Byte.SIZE - 1)), width, out, outOffset);
+            return width;
+        }
+
+        @Override
+        public int maxNormalizedLength(int textLength) {
+            return width;
+        }
+    }
+
+    private static final class DoubleKey extends KeyType {
+        @Override
+        public int normalize(byte[] text, int from, int to, byte[] out, int outOffset) {
+            double value = parseDouble(text, from, to);
+
+            // Negative values have every bit flipped so larger magnitudes sort first, positive ones the sign bit
+            long bits = Double.doubleToLongBits(value);
+            writeLong(bits ^ ((bits >> 63) | Long.MIN_VALUE), Long.BYTES, out, outOffset);
+            return Long.BYTES;
+        }
+
+        @Override
+        public int maxNormalizedLength(int textLength) {
+            return Long.BYTES;
+        }
+    }
+
+    private static final class Utf8Key extends KeyType {
+        @Override
+        public int normalize(byte[] text, int from, int to, byte[] out, int outOffset) {
+            System.arraycopy(text, from, out, outOffset, to - from);
+            return to - from;
+        }
+
+        @Override
+        public int maxNormalizedLength(int textLength) {
+            return textLength;
+        }
+    }
+
+    private static final class FixedBytesKey extends KeyType {
+        private final int width;
+
+        FixedBytesKey(int width) {
+            this.width = width;
+        }
+
+        @Override
+        public int normalize(byte[] text, int from, int to, byte[] out, int outOffset) {
+            int length = Math.min(width, to - from);
+            System.arraycopy(text, from, out, outOffset, length);
+            for (int i = length; i < width; i++) {
+                out[outOffset + i] = 0;
+            }
+            return width;
+        }
+
+        @Override
+        public int maxNormalizedLength(int textLength) {
+            return width;
+        }
+    }
+
+    private static long parseLong(byte[] text, int from, int to) {
+        while (from < to && (text[from] & 0xff) <= ' ') from++;
+        while (to > from && (text[to - 1] & 0xff) <= ' ') to--;
+
+        int i = from;
+        boolean negative = i < to && text[i] == '-';
+        if (i < to && (text[i] == '-' || text[i] == '+')) i++;
+        if (i == to) throw notA("an integer", text, from, to);
+
+        // Accumulate negatively so that Long.MIN_VALUE fits
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = text[i] - '0';
+            if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+                throw notA("an integer", text, from, to);
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative && value == Long.MIN_VALUE) throw notA("an integer", text, from, to);
+        return negative ? value : -value;
+    }
+
+    /** Powers of ten that doubles hold exactly. */
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Parses a decimal such as {@code -12.5} or {@code 3e-4} from the bytes. If its digits make an integer of at
+     * most 2^53 and its power of ten is exact as a double, one multiplication or division gives the correctly
+     * rounded value; any other text, long fractions or {@code NaN} say, goes through {@link Double#parseDouble}.
+     */
+    private static double parseDouble(byte[] text, int from, int to) {
+        while (from < to && (text[from] & 0xff) <= ' ') from++;
+        while (to > from && (text[to - 1] & 0xff) <= ' ') to--;
+
+        int i = from;
+        boolean negative = i < to && text[i] == '-';
+        if (i < to && (text[i] == '-' || text[i] == '+')) i++;
+
+        long mantissa = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean exact = true;
+        for (boolean fraction = false; i < to; i++) {
+            int digit = text[i] - '0';
+            if (digit >= 0 && digit <= 9) {
+                digits = true;
+                if (mantissa <= (1L << 53)) {
+                    mantissa = mantissa * 10 + digit;
+                    if (fraction) exponent--;
+                } else if (!fraction) {
+                    exact = false;
+                } else if (digit != 0) {
+                    exact = false;
+                }
+            } else if (text[i] == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (digits && i < to && (text[i] == 'e' || text[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < to && text[i] == '-';
+            if (i < to && (text[i] == '-' || text[i] == '+')) i++;
+            int start = i;
+            int power = 0;
+            for (; i < to && text[i] >= '0' && text[i] <= '9' && power < 1000; i++) {
+                power = power * 10 + (text[i] - '0');
+            }
+            exponent += negativeExponent ? -power : power;
+            if (i == start) digits = false;
+        }
+
+        if (digits && exact && i == to && mantissa <= (1L << 53) && Math.abs(exponent) < EXACT_POWERS_OF_TEN.length) {
+            double value = exponent < 0 ? mantissa / EXACT_POWERS_OF_TEN[-exponent]
+                    : mantissa * EXACT_POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        try {
+            return Double.parseDouble(new String(text, from, to - from, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            throw notA("a number", text, from, to);
+        }
+    }
+
+    private static void writeLong(long value, int width, byte[] out, int outOffset) {
+        for (int i = 0; i < width; i++) {
+            out[outOffset + i] = (byte) (value >>> ((width - 1 - i) * Byte.SIZE));
+        }
+    }
+
+    private static NumberFormatException notA(String what, byte[] text, int from, int to) {
+        return new NumberFormatException("Not " + what + ": \""
+                + new String(text, from, to - from, StandardCharsets.UTF_8) + "\"");
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.testfx.externalsort;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * k-way merger backed by a tree of losers (tournament tree), so each output row costs O(log k) comparisons.
+ *
+ * Inputs occupy the leaves {@code k..2k-1} of an implicit binary tree; every internal node {@code 1..k-1} holds
+ * the input that lost the match played there and node 0 holds the overall winner. After the winner's row is
+ * written only the matches on its leaf-to-root path are replayed.
+ *
+ * With offset-value coding enabled each row carries the code computed by {@link RunIterator} relative to its
+ * predecessor. Every loser in the tree is kept coded relative to the winner of its match, which is the row
+ * written last whenever the match is replayed, so most matches are decided by comparing the two codes.
+ */
+public class LoserTreeMerger implements Merger {
+    private final boolean useOffsetValueCodes;
+    private final LongAdder comparisons = new LongAdder();
+
+    public LoserTreeMerger() {
+        this(false);
+    }
+
+    public LoserTreeMerger(boolean useOffsetValueCodes) {
+        this.useOffsetValueCodes = useOffsetValueCodes;
+    }
+
+    public boolean usesOffsetValueCodes() {
+        return useOffsetValueCodes;
+    }
+
+    @Override
+    public void merge(List<RunIterator> runIterators, SortSink output) throws IOException {
+        if (runIterators.isEmpty()) return;
+        new Tournament(runIterators.toArray(new RunIterator[0])).run(output);
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    /**
+     * State of one merge, kept apart from the merger so that several merges can run at the same time.
+     */
+    private class Tournament {
+        private final RunIterator[] inputs;
+        private final int[] keys;
+        private final int[] codes;
+        private final int[] tree;
+        private long matches;
+
+        Tournament(RunIterator[] inputs) {
+            this.inputs = inputs;
+            this.keys = new int[inputs.length];
+            this.codes = new int[inputs.length];
+            this.tree = new int[inputs.length];
+        }
+
+        void run(SortSink output) throws IOException {
+            int k = inputs.length;
+            for (int i = 0; i < k; i++) {
+                advance(i);
+            }
+
+            int winner = build(k);
+            try {
+                while (codes[winner] != OffsetValueCode.EXHAUSTED) {
+                    output.addField(keys[winner]);
+                    advance(winner);
+                    winner = replay(winner, k);
+                }
+            } finally {
+                comparisons.add(matches);
+            }
+        }
+
+        private int build(int k) {
+            // Winners of the subtrees, indexed like the tree with the leaves at k..2k-1
+            int[] winners = new int[2 * k];
+            for (int i = 0; i < k; i++) {
+                winners[k + i] = i;
+            }
+
+            for (int node = k - 1; node > 0; node--) {
+                int left = winners[2 * node];
+                int right = winners[2 * node + 1];
+                if (beats(left, right)) {
+                    winners[node] = left;
+                    tree[node] = right;
+                } else {
+                    winners[node] = right;
+                    tree[node] = left;
+                }
+            }
+
+            tree[0] = k > 1 ? winners[1] : 0;
+            return tree[0];
+        }
+
+        private int replay(int previousWinner, int k) {
+            int candidate = previousWinner;
+            for (int node = (k + previousWinner) >>> 1; node > 0; node >>>= 1) {
+                int storedLoser = tree[node];
+                if (!beats(candidate, storedLoser)) {
+                    tree[node] = candidate;
+                    candidate = storedLoser;
+                }
+            }
+
+            tree[0] = candidate;
+            return candidate;
+        }
+
+        /**
+         * Plays a match and returns whether input {@code a} beats input {@code b}. Both rows are coded relative to
+         * the same base; the loser leaves the match coded relative to the winner.
+         */
+        private boolean beats(int a, int b) {
+            matches++;
+            int codeA = codes[a];
+            int codeB = codes[b];
+
+            if (codeA != codeB) return codeA < codeB;
+            if (codeA == OffsetValueCode.EXHAUSTED) return false;
+
+            if (!useOffsetValueCodes) return keys[a] <= keys[b];
+
+            // Equal codes: the rows agree up to and including the offset, compare the remaining columns
+            if (OffsetValueCode.compareBeyondOffset(keys[a], keys[b]) <= 0) {
+                codes[b] = OffsetValueCode.of(keys[b], keys[a]);
+                return true;
+            } else {
+                codes[a] = OffsetValueCode.of(keys[a], keys[b]);
+                return false;
+            }
+        }
+
+        private void advance(int input) throws IOException {
+            RunIterator iterator = inputs[input];
+            if (iterator.hasNext()) {
+                keys[input] = iterator.nextInt();
+                codes[input] = useOffsetValueCodes ? iterator.currentCode() : 0;
+            } else {
+                codes[input] = OffsetValueCode.EXHAUSTED;
+                iterator.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.testfx.externalsort;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Decides which runs actually need merging. Runs whose key ranges do not overlap, such as the natural runs of
+ * appended logs or the pages of an already sorted prefix, only have to be laid end to end in key order; that is
+ * done with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, without reading the
+ * values or comparing them. The key ranges come from the runs' summaries, so finding them reads no run either.
+ *
+ * The runs that do need merging are scheduled like the nodes of a k-ary Huffman tree: every intermediate merge
+ * takes the smallest runs there are, and the first one takes only as many as it must for all later merges, the
+ * final one included, to run at full fan-in. This minimises the number of values rewritten by intermediate merges.
+ */
+class MergePlanner {
+    private static final System.Logger LOG = System.getLogger(MergePlanner.class.getName());
+
+    /**
+     * One merge of runs into a new run.
+     */
+    interface RunMerge {
+        Run merge(List<Run> runs) throws IOException;
+    }
+
+    private final ExternalSort externalSort;
+
+    MergePlanner(ExternalSort externalSort) {
+        this.externalSort = externalSort;
+    }
+
+    /**
+     * Replaces every chain of runs with disjoint key ranges by one concatenated run and drops empty runs. Runs are
+     * taken in order of their smallest value, each joining the chain whose largest value is closest below it, so
+     * runs overlapping some other run may still be chained with a third. Only runs stored alike, compressed with
+     * the same codec or not at all, are chained. The chains are looked up by their largest value, so planning takes
+     * O(n log n) for n runs.
+     */
+    List<Run> concatenateDisjoint(List<Run> runs) throws IOException {
+        List<Bounds> bounds = new ArrayList<>();
+        for (Run run : runs) {
+            RunSummary summary = run.summary();
+            if (summary.getNumFields() > 0) {
+                bounds.add(new Bounds(run, summary));
+                run.close();
+            }
+        }
+        bounds.sort(Comparator.comparingInt(b -> b.min));
+
+        // Open chains by codec and by the largest value of their last run
+        List<List<Bounds>> chains = new ArrayList<>();
+        Map<RunCodec, TreeMap<Integer, ArrayDeque<List<Bounds>>>> tails = new IdentityHashMap<>();
+        for (Bounds run : bounds) {
+            TreeMap<Integer, ArrayDeque<List<Bounds>>> codecTails =
+                    tails.computeIfAbsent(run.run.getCodec(), codec -> new TreeMap<>());
+            Map.Entry<Integer, ArrayDeque<List<Bounds>>> closest = codecTails.floorEntry(run.min);
+            List<Bounds> chain;
+            if (closest == null) {
+                chain = new ArrayList<>();
+                chains.add(chain);
+            } else {
+                chain = closest.getValue().pollFirst();
+                if (closest.getValue().isEmpty()) codecTails.remove(closest.getKey());
+            }
+            chain.add(run);
+            codecTails.computeIfAbsent(run.max, max -> new ArrayDeque<>()).addLast(chain);
+        }
+
+        List<Run> planned = new ArrayList<>();
+        int concatenated = 0;
+        for (List<Bounds> chain : chains) {
+            if (chain.size() == 1) {
+                planned.add(chain.get(0).run);
+            } else {
+                planned.add(concatenate(chain));
+                concatenated += chain.size();
+            }
+        }
+
+        if (concatenated > 0) {
+            LOG.log(System.Logger.Level.DEBUG, "Concatenated {0} non-overlapping runs into {1} without merging",
+                    concatenated, planned.size() - (bounds.size() - concatenated));
+        }
+        return planned;
+    }
+
+    /**
+     * Merges runs with {@code merge}, at most {@link SortConfig#getFanIn()} at a time, until no more than
+     * {@code remaining} are left for the final merge, and returns those. The bytes the intermediate merges will
+     * write are added to {@link SortStats#getPlannedMergeBytes()} and logged before any of them runs.
+     */
+    List<Run> mergeDown(List<Run> runs, int remaining, RunMerge merge) throws IOException {
+        int fanIn = Math.max(2, externalSort.getConfig().getFanIn());
+        remaining = Math.max(1, Math.min(fanIn, remaining));
+        if (runs.size() <= remaining) return runs;
+
+        PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.comparingLong(Run::numFields));
+        queue.addAll(runs);
+
+        PriorityQueue<Long> plannedSizes = new PriorityQueue<>();
+        for (Run run : runs) {
+            plannedSizes.add(run.numFields());
+        }
+        long plannedFields = 0;
+        int plannedMerges = 0;
+        for (int width = firstMergeWidth(runs.size(), fanIn, remaining); plannedSizes.size() > remaining; width = fanIn) {
+            long size = 0;
+            for (int i = 0; i < width; i++) {
+                size += plannedSizes.poll();
+            }
+            plannedSizes.add(size);
+            plannedFields += size;
+            plannedMerges++;
+        }
+        externalSort.getStats().addPlannedMergeBytes(plannedFields * Page.FIELD_SIZE);
+        LOG.log(System.Logger.Level.DEBUG, "Merge plan: {0} intermediate merges of {1} runs, rewriting {2} bytes"
+                + " before the final merge", plannedMerges, runs.size(), plannedFields * Page.FIELD_SIZE);
+
+        for (int width = firstMergeWidth(runs.size(), fanIn, remaining); queue.size() > remaining; width = fanIn) {
+            List<Run> smallest = new ArrayList<>();
+            for (int i = 0; i < width; i++) {
+                smallest.add(queue.poll());
+            }
+            externalSort.getStats().addMerge(width);
+            queue.add(merge.merge(smallest));
+        }
+        return new ArrayList<>(queue);
+    }
+
+    /**
+     * Width of the first merge that leaves a number of runs from which merges of {@code fanIn} end in exactly
+     * {@code remaining} runs, as if the runs were padded with empty ones to a full tree.
+     */
+    static int firstMergeWidth(int numRuns, int fanIn, int remaining) {
+        return (numRuns - remaining - 1) % (fanIn - 1) + 2;
+    }
+
+    private Run concatenate(List<Bounds> chain) throws IOException {
+        // Frames of compressed runs are self-contained, so they can be laid end to end like pages
+        Run target = new Run(externalSort, chain.get(0).run.getCodec());
+        SpillManager spillManager = externalSort.getSpillManager();
+        List<RunSummary> parts = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(target.getFile().toPath(), StandardOpenOption.WRITE)) {
+            for (Bounds source : chain) {
+                try (FileChannel in = FileChannel.open(source.run.getFile().toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    spillManager.charge(target.getFile(), size);
+                    for (long position = 0; position < size; ) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                    externalSort.getBufferPool().countIo(size, size);
+                }
+                parts.add(source.summary);
+                // The source is not referenced again
+                spillManager.delete(source.run.getFile());
+            }
+        }
+        target.setSummary(RunSummary.concat(parts));
+        return target;
+    }
+
+    private static class Bounds {
+        final Run run;
+        final RunSummary summary;
+        final int min;
+        final int max;
+
+        Bounds(Run run, RunSummary summary) {
+            this.run = run;
+            this.summary = summary;
+            this.min = summary.getMin();
+            this.max = summary.getMax();
+        }
+    }
+}
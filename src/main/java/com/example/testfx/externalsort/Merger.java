@@ -0,0 +1,27 @@
+package com.example.testfx.externalsort;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Strategy for merging a set of sorted runs into one sorted output run.
+ *
+ * A merger may be called from several threads at once: the parallel merge (see {@link ParallelMerge}) uses the
+ * sorter's merger for every key range.
+ */
+public interface Merger {
+
+    /**
+     * Merges the opened {@code inputs} into {@code output}, which is either a new run or, in the final pass, the
+     * caller's sink. The inputs are consumed from their current position; the caller remains responsible for
+     * flushing the output.
+     */
+    void merge(List<RunIterator> inputs, SortSink output) throws IOException;
+
+    /**
+     * Number of matches between rows played so far by all merges, or 0 if the merger does not count them.
+     */
+    default long getComparisons() {
+        return 0;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the natural runs in a stream of values, in the manner of natural merge sort and TimSort, and passes
+ * everything else on to another run generator.
+ *
+ * A run is a stretch of non-decreasing or strictly decreasing values. Values are collected in one page until it
+ * is clear whether the stretch reaches {@code minRunLength}: a run that does is written out as it is, a shorter one
+ * goes to the wrapped generator. Descending runs are written as they come and reversed in place when they end,
+ * which is why they must be strictly decreasing: reversing equal values would not keep the sort stable. Almost sorted
+ * input, like appended logs, thus becomes a few long runs that are never sorted in memory.
+ */
+class NaturalRuns implements RunGenerator {
+    private static final System.Logger LOG = System.getLogger(NaturalRuns.class.getName());
+
+    private final ExternalSort externalSort;
+    private final BufferPool bufferPool;
+    private final RunGenerator rest;
+    private final int minRunLength;
+    private final Page page;
+    private final List<Run> runs = new ArrayList<>();
+
+    private long trustedFields;
+    private Run run;
+    private boolean descending;
+    private int lastValue;
+    private long runLength;
+    private long naturalFields;
+    private long totalFields;
+
+    /**
+     * @param minRunLength   shortest stretch, at most a page, that is kept as a run of its own
+     * @param trustedFields  number of leading values known to be sorted already, which are taken as one ascending
+     *                       run without comparing them
+     */
+    NaturalRuns(ExternalSort externalSort, RunGenerator rest, int minRunLength, long trustedFields) {
+        this.externalSort = externalSort;
+        this.bufferPool = externalSort.getBufferPool();
+        this.rest = rest;
+        this.page = bufferPool.newPage();
+        this.minRunLength = Math.max(2, Math.min(minRunLength, bufferPool.getPageSize() / Page.FIELD_SIZE));
+        this.trustedFields = trustedFields;
+    }
+
+    @Override
+    public void addField(int field) throws IOException {
+        totalFields++;
+        if (trustedFields > 0) {
+            trustedFields--;
+            append(field);
+            return;
+        }
+
+        if (runLength == 1) {
+            descending = field < lastValue;
+        } else if (runLength > 1 && (descending ? field >= lastValue : field < lastValue)) {
+            endRun();
+        }
+        append(field);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        endRun();
+        rest.flush();
+        LOG.log(System.Logger.Level.DEBUG, "Detected {0} natural runs holding {1} of {2} values", runs.size(),
+                naturalFields, totalFields);
+    }
+
+    @Override
+    public List<Run> runs() {
+        List<Run> allRuns = new ArrayList<>(runs);
+        allRuns.addAll(rest.runs());
+        return allRuns;
+    }
+
+    private void append(int field) throws IOException {
+        if (page.isFull()) {
+            writePage();
+        }
+        try {
+            page.addInt(field);
+        } catch (PageFullException e) {
+            throw new IOException("New page should not be full!");
+        }
+        lastValue = field;
+        runLength++;
+    }
+
+    /**
+     * Appends the page to the current run, starting the run if this is its first page.
+     */
+    private void writePage() throws IOException {
+        if (run == null) {
+            // Uncompressed, since descending runs are reversed in place
+            run = new Run(externalSort, null);
+        }
+        run.append(page);
+        page.clear();
+    }
+
+    private void endRun() throws IOException {
+        if (run == null && runLength < minRunLength) {
+            for (int i = 0; i < page.size(); i++) {
+                rest.addField(page.getInt(i));
+            }
+        } else if (!page.isEmpty()) {
+            writePage();
+        }
+        page.clear();
+
+        if (run != null) {
+            if (descending) {
+                // The index recorded while writing is upside down, but its first value is now the largest
+                int max = run.summary().getMin();
+                long numFields = run.numFields();
+                int[] pageKeys = reverse(run.getFile(), numFields);
+                run.setSummary(RunSummary.ofPages(bufferPool.getPageSize(), numFields, pageKeys, max));
+            }
+            run.close();
+            runs.add(run);
+            naturalFields += runLength;
+        }
+        run = null;
+        descending = false;
+        runLength = 0;
+        trustedFields = 0;
+    }
+
+    /**
+     * Reverses the order of the values in a run file, swapping page-sized blocks from both ends inwards, and returns
+     * the value each page starts with afterwards, for the run's index.
+     */
+    private int[] reverse(File file, long numFields) throws IOException {
+        int blockFields = bufferPool.getPageSize() / Page.FIELD_SIZE;
+        int[] pageKeys = new int[(int) ((numFields + blockFields - 1) / blockFields)];
+        ByteBuffer front = ByteBuffer.allocate(bufferPool.getPageSize());
+        ByteBuffer back = ByteBuffer.allocate(bufferPool.getPageSize());
+
+        long low = 0;
+        long high = numFields;
+        while (low < high) {
+            int n = (int) Math.min(blockFields, (high - low) / 2);
+            if (n == 0) break;
+
+            readBlock(file, front, low, n);
+            readBlock(file, back, high - n, n);
+            // Blocks are whole pages until the middle, so the back block goes to the start of a page; the front
+            // block holds the start of the page, if any, that begins within its new place
+            pageKeys[(int) (low / blockFields)] = back.getInt(0);
+            long pageStart = (high - 1) / blockFields * blockFields;
+            int offset = (int) (pageStart - (high - n));
+            if (offset >= 0) {
+                pageKeys[(int) (pageStart / blockFields)] = front.getInt(offset * Page.FIELD_SIZE);
+            }
+            bufferPool.write(file, back, low * Page.FIELD_SIZE);
+            bufferPool.write(file, front, (high - n) * Page.FIELD_SIZE);
+            low += n;
+            high -= n;
+        }
+        // A middle value left over stays where it is
+        if (low < high && low % blockFields == 0) {
+            readBlock(file, front, low, 1);
+            pageKeys[(int) (low / blockFields)] = front.getInt(0);
+        }
+        bufferPool.closeFile(file);
+        return pageKeys;
+    }
+
+    /**
+     * Reads {@code n} values from field {@code from} into {@code buffer}, reversed, and readies it for writing.
+     */
+    private void readBlock(File file, ByteBuffer buffer, long from, int n) throws IOException {
+        buffer.clear().limit(n * Page.FIELD_SIZE);
+        bufferPool.read(file, buffer, from * Page.FIELD_SIZE);
+        IntBuffer values = buffer.flip().asIntBuffer();
+        for (int i = 0, j = n - 1; i < j; i++, j--) {
+            int value = values.get(i);
+            values.put(i, values.get(j));
+            values.put(j, value);
+        }
+    }
+}
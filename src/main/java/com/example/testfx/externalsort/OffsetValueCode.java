@@ -0,0 +1,72 @@
+package com.example.testfx.externalsort;
+
+/**
+ * Offset-value codes for int keys, as described in "Optimizing External Merge Sort with Offset Values".
+ *
+ * A key is treated as {@link #ARITY} one-byte columns of its order-preserving (sign-flipped, big-endian)
+ * representation. The code of a row relative to a base row that sorts at or before it records the first
+ * column in which the two differ (the offset) and the row's value in that column. Codes are encoded so that,
+ * for two rows coded against the same base, the smaller code belongs to the smaller row; equal codes mean
+ * the rows share a longer prefix and only the remaining columns have to be compared.
+ */
+public final class OffsetValueCode {
+    public static final int ARITY = Integer.BYTES;
+    public static final int DOMAIN = 256;
+
+    /** Code of a row that is equal to its base (offset == ARITY). */
+    public static final int DUPLICATE = 0;
+
+    /** Code that sorts after every real code, used for exhausted inputs. */
+    public static final int EXHAUSTED = Integer.MAX_VALUE;
+
+    private OffsetValueCode() {
+    }
+
+    /**
+     * Code of {@code key} relative to {@code base}. The caller guarantees {@code base <= key}.
+     */
+    public static int of(int key, int base) {
+        int diff = normalize(key) ^ normalize(base);
+        if (diff == 0) return DUPLICATE;
+
+        int offset = Integer.numberOfLeadingZeros(diff) / Byte.SIZE;
+        return encode(offset, columnValue(key, offset));
+    }
+
+    /**
+     * Code of {@code key} relative to an imaginary base that sorts before every key, i.e. the code carried by
+     * the first row of a run.
+     */
+    public static int ofFirst(int key) {
+        return encode(0, columnValue(key, 0));
+    }
+
+    public static int offset(int code) {
+        return ARITY - code / DOMAIN;
+    }
+
+    public static int value(int code) {
+        return code % DOMAIN;
+    }
+
+    /**
+     * Resolves a tie between two rows that carry the same code relative to the same base by comparing the
+     * columns after the shared offset. Since the shared prefix is known to be equal, comparing the normalized
+     * keys is equivalent and a single instruction for int keys.
+     */
+    public static int compareBeyondOffset(int key1, int key2) {
+        return Integer.compareUnsigned(normalize(key1), normalize(key2));
+    }
+
+    private static int encode(int offset, int value) {
+        return (ARITY - offset) * DOMAIN + value;
+    }
+
+    private static int columnValue(int key, int offset) {
+        return (normalize(key) >>> ((ARITY - 1 - offset) * Byte.SIZE)) & (DOMAIN - 1);
+    }
+
+    private static int normalize(int key) {
+        return key ^ Integer.MIN_VALUE;
+    }
+}
@@ -1,13 +1,8 @@
 package com.example.testfx.externalsort;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.Arrays;
 
 class PageFullException extends Exception {
     PageFullException(String message) {
@@ -15,53 +10,96 @@ class PageFullException extends Exception {
     }
 }
 
+/**
+ * A fixed-capacity page of int fields. Pages are owned by a {@link BufferPool} and reused: the fields live in
+ * a primitive array and the page keeps one byte buffer for moving its contents to and from disk, so neither
+ * reading, sorting nor writing a page allocates.
+ */
 public class Page {
     public static final int FIELD_SIZE = Integer.BYTES;
-    public static int PAGE_SIZE = 4096;
+    public static final int DEFAULT_PAGE_SIZE = 4096;
 
-    private ArrayList<Integer> data;
+    private final int pageSize;
+    private final int[] data;
+    private int size;
 
-    Page(byte[] rawPage, int length) {
-        IntBuffer intBuf = ByteBuffer.wrap(rawPage).asIntBuffer();
-        data = new ArrayList<>();
-        int lengthRemaining = length;
+    private final ByteBuffer buffer;
+    private final IntBuffer intView;
 
-        while (lengthRemaining > 0) {
-            data.add(intBuf.get());
-            lengthRemaining -= FIELD_SIZE;
-        }
+    Page(int pageSize) {
+        this(pageSize, false);
     }
 
-    Page() {
-        this.data = new ArrayList<>();
+    /**
+     * @param direct back the I/O buffer with native memory, which channels can read into and write from without
+     *               copying through a temporary buffer of their own
+     */
+    Page(int pageSize, boolean direct) {
+        this.pageSize = pageSize;
+        this.data = new int[pageSize / FIELD_SIZE];
+        this.buffer = direct ? ByteBuffer.allocateDirect(pageSize) : ByteBuffer.allocate(pageSize);
+        this.intView = buffer.asIntBuffer();
     }
 
-    public void addField(Integer field) throws PageFullException {
-        if (isFull()) throw new PageFullException("Page has reached its maximum size");
-        data.add(field);
+    public int getPageSize() {
+        return pageSize;
     }
 
-    public void sort() {
-        Collections.sort(this.data);
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size >= data.length;
+    }
+
+    public int getInt(int index) {
+        return data[index];
     }
 
-    public Iterator<Integer> iterator() {
-        return this.data.iterator();
+    public void addInt(int field) throws PageFullException {
+        if (isFull()) throw new PageFullException("Page has reached its maximum size");
+        data[size++] = field;
     }
 
-    public byte[] serialize() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream(baos);
+    public void clear() {
+        size = 0;
+    }
 
-        for (Integer field: data) {
-            out.writeInt(field);
-        }
+    public void sort() {
+        Arrays.sort(data, 0, size);
+    }
+
+    /**
+     * The page's I/O buffer. Raw bytes read from disk are placed here and then decoded with {@link #load(int)}.
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
 
-        return baos.toByteArray();
+    /**
+     * Decodes the first {@code length} bytes of the I/O buffer into the page, replacing its contents.
+     */
+    void load(int length) {
+        size = Math.max(0, length) / FIELD_SIZE;
+        intView.clear();
+        intView.get(data, 0, size);
     }
 
-    private boolean isFull() {
-        return this.data.size() >= PAGE_SIZE / FIELD_SIZE;
+    /**
+     * Encodes the page into its I/O buffer and returns the buffer, positioned at 0 and limited to the page's
+     * contents. The buffer is overwritten by the next call.
+     */
+    public ByteBuffer serialize() {
+        intView.clear();
+        intView.put(data, 0, size);
+        buffer.clear();
+        buffer.limit(size * FIELD_SIZE);
+        return buffer;
     }
 
 }
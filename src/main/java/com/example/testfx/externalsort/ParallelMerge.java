@@ -0,0 +1,363 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Merges a set of runs on several threads by partitioning the key space.
+ *
+ * Splitter keys are sampled from all runs, and every run is cut at each splitter by a binary search, so that key
+ * range {@code j} consists of the fields between cut {@code j - 1} and cut {@code j} of every run. The ranges are
+ * independent merges, each with its own share of the sorter's input buffers. Since every key of a range sorts
+ * before every key of the next, their outputs are simply laid end to end: when the output is a {@link Run} or a
+ * {@link ChannelSink} over a file, each range writes straight to its final position in the file. Any other sink is
+ * fed by the first range directly while the others wait in a spill file, which costs an extra write and read of
+ * their share of the data.
+ *
+ * Where the runs' summaries have a sparse index, the samples are taken from it and each binary search starts from
+ * the page the index points to, so that partitioning reads hardly any of the runs.
+ */
+public class ParallelMerge {
+    /** Samples drawn per key range; more samples give ranges of more even size. */
+    private static final int SAMPLES_PER_RANGE = 32;
+
+    private final ExternalSort externalSort;
+    private final BufferPool bufferPool;
+    private final SortConfig config;
+    private final ByteBuffer field = ByteBuffer.allocate(Page.FIELD_SIZE);
+
+    ParallelMerge(ExternalSort externalSort) {
+        this.externalSort = externalSort;
+        this.bufferPool = externalSort.getBufferPool();
+        this.config = externalSort.getConfig();
+    }
+
+    /**
+     * Merges {@code runs} into {@code output}. Returns {@code false}, having touched neither, when the buffers or
+     * the input are too small for more than one key range, or when the runs are compressed and so cannot be cut at
+     * arbitrary fields; the caller then merges sequentially.
+     */
+    public boolean merge(List<Run> runs, SortSink output) throws IOException {
+        if (output instanceof Run && ((Run) output).getCodec() != null) return false;
+        for (Run run : runs) {
+            if (run.getCodec() != null) return false;
+        }
+
+        int k = runs.size();
+        long[] lengths = new long[k];
+        long total = 0;
+        for (int r = 0; r < k; r++) {
+            lengths[r] = runs.get(r).numFields();
+            total += lengths[r];
+        }
+
+        int numRanges = numRanges(config, k, total);
+        if (k < 2 || numRanges < 2) return false;
+
+        long[][] cuts = cut(runs, lengths, total, sampleSplitters(runs, lengths, total, numRanges));
+        long[] rangeStarts = new long[numRanges + 1];
+        for (int j = 0; j <= numRanges; j++) {
+            for (int r = 0; r < k; r++) {
+                rangeStarts[j] += cuts[r][j];
+            }
+        }
+
+        int buffersPerRange = buffersPerRange(config, numRanges);
+        Ranges ranges = new Ranges(runs, cuts, rangeStarts, buffersPerRange,
+                readAheadPages(config, k, buffersPerRange));
+
+        if (output instanceof Run) {
+            File file = ((Run) output).getFile();
+            // The ranges write straight to the file, so its final size is charged up front
+            externalSort.getSpillManager().charge(file, total * Page.FIELD_SIZE);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                ((Run) output).setSummary(RunSummary.concat(ranges.merge(0, channel, 0, null)));
+            }
+            bufferPool.countIo(0, total * Page.FIELD_SIZE);
+        } else if (output instanceof ChannelSink && ((ChannelSink) output).getFileChannel() != null) {
+            ChannelSink sink = (ChannelSink) output;
+            sink.flush();
+            FileChannel channel = sink.getFileChannel();
+            sink.skip(RunSummary.concat(ranges.merge(0, channel, channel.position(), null)));
+        } else {
+            File rangeFile = bufferPool.createTempFile();
+            long parkedBytes = (total - rangeStarts[1]) * Page.FIELD_SIZE;
+            externalSort.getSpillManager().charge(rangeFile, parkedBytes);
+            try (FileChannel channel = FileChannel.open(rangeFile.toPath(), StandardOpenOption.WRITE)) {
+                ranges.merge(1, channel, 0, output);
+            }
+            bufferPool.countIo(0, parkedBytes);
+            copy(rangeFile, output);
+            externalSort.getSpillManager().delete(rangeFile);
+        }
+        return true;
+    }
+
+    /**
+     * Number of key ranges a merge of {@code numRuns} runs holding {@code numFields} fields is split into: one per
+     * thread, as long as every range can have a page per input plus an output page and a page's worth of fields.
+     * The pages are all taken from the sorter's input buffers, so the output buffers stay free for the sink.
+     */
+    static int numRanges(SortConfig config, int numRuns, long numFields) {
+        int fieldsPerPage = config.getPageSize() / Page.FIELD_SIZE;
+        int inputBuffers = config.getNumBuffers() - config.getWriteBehindPages();
+        return (int) Math.min(Math.min(config.getParallelism(), inputBuffers / (numRuns + 1)),
+                numFields / fieldsPerPage);
+    }
+
+    /**
+     * Input buffers each of {@code numRanges} ranges borrows.
+     */
+    static int buffersPerRange(SortConfig config, int numRanges) {
+        return (config.getNumBuffers() - config.getWriteBehindPages()) / numRanges;
+    }
+
+    /**
+     * Pages per input of a range: as many as configured, as far as the range's share of the buffers allows once
+     * its output page is set aside.
+     */
+    static int readAheadPages(SortConfig config, int numRuns, int buffersPerRange) {
+        return Math.max(1, Math.min(config.getReadAheadPages(), (buffersPerRange - 1) / numRuns));
+    }
+
+    /**
+     * Splitters at even quantiles of a sample drawn from the runs in proportion to their length.
+     */
+    private int[] sampleSplitters(List<Run> runs, long[] lengths, long total, int numRanges) throws IOException {
+        int numSamples = numRanges * SAMPLES_PER_RANGE;
+        int[] samples = new int[numSamples + runs.size()];
+        int size = 0;
+
+        for (int r = 0; r < runs.size(); r++) {
+            int runSamples = (int) ((lengths[r] * numSamples + total - 1) / total);
+            RunSummary summary = runs.get(r).summary();
+            for (int s = 0; s < runSamples; s++) {
+                samples[size++] = summary.getIndexSize() >= runSamples
+                        ? summary.indexKey((int) ((long) summary.getIndexSize() * s / runSamples))
+                        : fieldAt(runs.get(r).getFile(), lengths[r] * s / runSamples);
+            }
+        }
+
+        Arrays.sort(samples, 0, size);
+        int[] splitters = new int[numRanges - 1];
+        for (int j = 1; j < numRanges; j++) {
+            splitters[j - 1] = samples[(int) ((long) size * j / numRanges)];
+        }
+        return splitters;
+    }
+
+    /**
+     * For every run, the field indices that bound the key ranges: range {@code j} of run {@code r} is
+     * {@code cuts[r][j]} (inclusive) to {@code cuts[r][j + 1]} (exclusive) and holds the keys after splitter
+     * {@code j - 1} up to and including splitter {@code j}.
+     */
+    private long[][] cut(List<Run> runs, long[] lengths, long total, int[] splitters) throws IOException {
+        long[][] cuts = new long[runs.size()][splitters.length + 2];
+        for (int r = 0; r < runs.size(); r++) {
+            File file = runs.get(r).getFile();
+            RunSummary summary = runs.get(r).summary();
+            cuts[r][splitters.length + 1] = lengths[r];
+            for (int j = 0; j < splitters.length; j++) {
+                long from = Math.max(cuts[r][j], summary.searchFrom(splitters[j], true));
+                long to = Math.min(lengths[r], summary.searchTo(splitters[j], true));
+                cuts[r][j + 1] = upperBound(file, from, to, splitters[j]);
+            }
+            bufferPool.closeFile(file);
+        }
+        return cuts;
+    }
+
+    /**
+     * Index of the first field in {@code [from, to)} greater than {@code key}.
+     */
+    private long upperBound(File file, long from, long to, int key) throws IOException {
+        while (from < to) {
+            long mid = (from + to) >>> 1;
+            if (fieldAt(file, mid) <= key) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    private int fieldAt(File file, long index) throws IOException {
+        field.clear();
+        bufferPool.read(file, field, index * Page.FIELD_SIZE);
+        return field.getInt(0);
+    }
+
+    /**
+     * The key ranges of one merge and the buffers they work with.
+     */
+    private class Ranges {
+        private final List<Run> runs;
+        private final long[][] cuts;
+        private final long[] starts;
+        private final int buffersPerRange;
+        private final int readAheadPages;
+
+        Ranges(List<Run> runs, long[][] cuts, long[] starts, int buffersPerRange, int readAheadPages) {
+            this.runs = runs;
+            this.cuts = cuts;
+            this.starts = starts;
+            this.buffersPerRange = buffersPerRange;
+            this.readAheadPages = readAheadPages;
+        }
+
+        /**
+         * Merges the ranges from {@code first} on, each on a thread of its own, into {@code channel} from byte
+         * {@code position}, and returns their summaries in order. With {@code first} set to 1, range 0 is meanwhile
+         * merged into {@code output} on the calling thread.
+         */
+        List<RunSummary> merge(int first, FileChannel channel, long position, SortSink output) throws IOException {
+            int numRanges = starts.length - 1;
+            RunSummary[] summaries = new RunSummary[numRanges];
+            ForkJoinPool pool = new ForkJoinPool(numRanges);
+            try {
+                List<Future<Void>> results = new ArrayList<>();
+                for (int j = first; j < numRanges; j++) {
+                    int range = j;
+                    long rangePosition = position + (starts[range] - starts[first]) * Page.FIELD_SIZE;
+                    summaries[range] = new RunSummary(config.getPageSize());
+                    results.add(pool.submit(() -> {
+                        mergeRange(range, channel, rangePosition, summaries[range]);
+                        return null;
+                    }));
+                }
+
+                IOException failure = null;
+                try {
+                    if (first > 0) mergeRange(0, output);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                // Every range has to be done with its borrowed buffers before anyone else uses them
+                for (Future<Void> result : results) {
+                    try {
+                        BufferPool.await(result);
+                    } catch (IOException e) {
+                        if (failure == null) failure = e;
+                    }
+                }
+                if (failure != null) throw failure;
+            } finally {
+                pool.shutdown();
+            }
+            return Arrays.asList(summaries).subList(first, numRanges);
+        }
+
+        /**
+         * Merges a range into {@code channel} from byte {@code position} and records it in {@code summary}.
+         */
+        private void mergeRange(int range, FileChannel channel, long position, RunSummary summary)
+                throws IOException {
+            BufferPool rangePool = borrowBuffers(range);
+            try {
+                SortSink sink = new ChannelSink(new RangeChannel(channel, position),
+                        rangePool.getPage(rangePool.getOutputBufferIndex()), summary);
+                mergeRange(range, rangePool, sink);
+                sink.flush();
+            } finally {
+                returnBuffers(rangePool);
+            }
+        }
+
+        private void mergeRange(int range, SortSink output) throws IOException {
+            BufferPool rangePool = borrowBuffers(range);
+            try {
+                mergeRange(range, rangePool, output);
+            } finally {
+                returnBuffers(rangePool);
+            }
+        }
+
+        private void mergeRange(int range, BufferPool rangePool, SortSink output) throws IOException {
+            List<RunIterator> runIterators = new ArrayList<>();
+            try {
+                for (int r = 0; r < runs.size(); r++) {
+                    RunIterator runIterator = new RunIterator(runs.get(r).getFile(), cuts[r][range],
+                            cuts[r][range + 1], r * readAheadPages, readAheadPages, rangePool);
+                    runIterators.add(runIterator);
+                    runIterator.open();
+                }
+                externalSort.getMerger().merge(runIterators, output);
+            } catch (UncheckedIOException e) {
+                // A run could not be read
+                throw e.getCause();
+            } finally {
+                RunIterator.closeAll(runIterators);
+            }
+        }
+
+        /**
+         * The range's share of the sorter's buffers: a page per input and read-ahead slot plus an output page.
+         */
+        private BufferPool borrowBuffers(int range) {
+            return bufferPool.borrow(range * buffersPerRange, runs.size() * readAheadPages + 1);
+        }
+
+        private void returnBuffers(BufferPool rangePool) throws IOException {
+            rangePool.close();
+            bufferPool.countIo(rangePool.getBytesRead(), rangePool.getBytesWritten());
+        }
+    }
+
+    /**
+     * Writes sequentially from a position of a file channel that other ranges write to at the same time.
+     */
+    private static class RangeChannel implements WritableByteChannel {
+        private final FileChannel channel;
+        private long position;
+
+        RangeChannel(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int written = channel.write(source, position);
+            position += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // The channel belongs to the whole merge
+        }
+    }
+
+    /**
+     * Passes the ranges parked in {@code file} on to the sink, in order.
+     */
+    private void copy(File file, SortSink output) throws IOException {
+        final int INPUT_BUFFER_INDEX = 0;
+        int numPages = bufferPool.numPages(file);
+
+        for (int pageNo = 0; pageNo < numPages; pageNo++) {
+            Page page = bufferPool.readPage(file, pageNo, INPUT_BUFFER_INDEX);
+            for (int i = 0; i < page.size(); i++) {
+                output.addField(page.getInt(i));
+            }
+        }
+        bufferPool.closeFile(file);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run generation spread over several cores.
+ *
+ * The binary input is cut into page-aligned chunks that each take an equal share of the memory budget. A fork-join
+ * pool runs one worker per degree of parallelism; every worker repeatedly claims the next chunk, reads it with
+ * positional reads, sorts it in place and writes it as a run through its own output page. Workers allocate their
+ * chunk array and pages once, so memory stays within the budget however many chunks there are.
+ */
+public class ParallelRunGenerator {
+    private final ExternalSort externalSort;
+    private final int parallelism;
+    private final int pagesPerChunk;
+
+    ParallelRunGenerator(ExternalSort externalSort) {
+        this.externalSort = externalSort;
+        SortConfig config = externalSort.getConfig();
+        this.parallelism = config.getParallelism();
+        this.pagesPerChunk = pagesPerChunk(config);
+    }
+
+    /**
+     * Pages per chunk once every worker has set aside an input and an output page.
+     */
+    static int pagesPerChunk(SortConfig config) {
+        long perWorker = config.getMemoryBudget() / config.getParallelism() - 2L * config.getPageSize();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE / config.getPageSize(), perWorker / config.getPageSize()));
+    }
+
+    /**
+     * Sorts pages {@code fromPage} (inclusive) to {@code toPage} (exclusive) of a binary file into runs of one chunk
+     * each, returned in input order. Chunks without fields give no run.
+     */
+    public List<Run> generateRuns(File file, int fromPage, int toPage) throws IOException {
+        int numChunks = (int) (((long) toPage - fromPage + pagesPerChunk - 1) / pagesPerChunk);
+        if (numChunks <= 0) return new ArrayList<>();
+
+        Run[] runs = new Run[numChunks];
+        AtomicInteger nextChunk = new AtomicInteger();
+        int numWorkers = Math.min(parallelism, numChunks);
+
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < numWorkers; i++) {
+            workers.add(() -> {
+                ChunkSorter sorter = new ChunkSorter();
+                Page inputPage = externalSort.getBufferPool().newPage();
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+                    int firstPage = fromPage + chunk * pagesPerChunk;
+                    runs[chunk] = sorter.sortChunk(file, firstPage, Math.min(toPage, firstPage + pagesPerChunk), inputPage);
+                }
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numWorkers);
+        try {
+            for (Future<Void> result : pool.invokeAll(workers)) {
+                BufferPool.await(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Run> runList = new ArrayList<>();
+        for (Run run : runs) {
+            if (run != null) runList.add(run);
+        }
+        return runList;
+    }
+
+    /**
+     * A chunk sorter for one thread, holding a share of the budget. Values can also be pushed in one at a time,
+     * e.g. by one of several concurrent text parsers.
+     */
+    RunGenerator newChunkSorter() {
+        return new ChunkSorter();
+    }
+
+    private class ChunkSorter implements RunGenerator {
+        private final BufferPool bufferPool = externalSort.getBufferPool();
+        private final int pageSize = bufferPool.getPageSize();
+        private final int[] chunk = new int[pagesPerChunk * (pageSize / Page.FIELD_SIZE)];
+        private int size;
+        private final Page outputPage = bufferPool.newPage();
+        private final List<Run> runs = new ArrayList<>();
+
+        @Override
+        public void addField(int field) throws IOException {
+            chunk[size++] = field;
+            if (size == chunk.length) {
+                runs.add(writeRun());
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                runs.add(writeRun());
+            }
+        }
+
+        @Override
+        public List<Run> runs() {
+            return runs;
+        }
+
+        /**
+         * Sorts pages {@code firstPage} (inclusive) to {@code lastPage} (exclusive) of a binary file into a run, or
+         * returns null if they hold no fields.
+         */
+        Run sortChunk(File file, int firstPage, int lastPage, Page inputPage) throws IOException {
+            for (int pageNo = firstPage; pageNo < lastPage; pageNo++) {
+                inputPage.buffer().clear();
+                inputPage.load(bufferPool.read(file, inputPage.buffer(), (long) pageNo * pageSize));
+                for (int i = 0; i < inputPage.size(); i++) {
+                    chunk[size++] = inputPage.getInt(i);
+                }
+            }
+            return size == 0 ? null : writeRun();
+        }
+
+        private Run writeRun() throws IOException {
+            Arrays.sort(chunk, 0, size);
+
+            Run run = new Run(externalSort);
+            outputPage.clear();
+            try {
+                for (int i = 0; i < size; i++) {
+                    if (outputPage.isFull()) {
+                        run.append(outputPage);
+                        outputPage.clear();
+                    }
+                    outputPage.addInt(chunk[i]);
+                }
+            } catch (PageFullException e) {
+                throw new IOException("New page should not be full!");
+            }
+            run.append(outputPage);
+            run.close();
+            size = 0;
+
+            return run;
+        }
+    }
+}
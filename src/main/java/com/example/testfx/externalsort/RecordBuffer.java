@@ -0,0 +1,179 @@
+package com.example.testfx.externalsort;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * In-memory sort area for records during run generation.
+ *
+ * Records are appended to one byte array in the run file layout (see {@link RecordRunWriter}) and addressed by
+ * their start offsets, so a full buffer holds no objects per record.
+ *
+ * Next to each offset sits the first 8 bytes of the record's normalized key as an unsigned long, as in AlphaSort.
+ * Sorting permutes these (prefix, offset) entries and decides most comparisons on the prefixes alone, touching the
+ * records in the data array only when two prefixes tie.
+ */
+class RecordBuffer {
+    /** Bytes per record spent outside the data: its key prefix and offset, plus the merge sort's scratch copy. */
+    private static final int ENTRY_SIZE = 2 * (Long.BYTES + Integer.BYTES);
+
+    /** Assumed smallest average record, used to divide the budget between data and offsets. */
+    private static final int TYPICAL_RECORD_SIZE = 24;
+
+    private final byte[] data;
+    private final long[] prefixes;
+    private final int[] offsets;
+    private final long[] prefixScratch;
+    private final int[] scratch;
+    private int used;
+    private int count;
+
+    RecordBuffer(long capacity) {
+        long entries = capacity / (TYPICAL_RECORD_SIZE + ENTRY_SIZE);
+        long dataBytes = capacity - entries * ENTRY_SIZE;
+        this.data = new byte[(int) Math.max(RecordRunWriter.HEADER_SIZE, Math.min(Integer.MAX_VALUE - 8, dataBytes))];
+        this.offsets = new int[(int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, entries))];
+        this.prefixes = new long[offsets.length];
+        this.scratch = new int[offsets.length];
+        this.prefixScratch = new long[offsets.length];
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * A copy of the normalized key of the first record in the current order.
+     */
+    byte[] firstKey() {
+        return key(offsets[0]);
+    }
+
+    /**
+     * A copy of the normalized key of the last record in the current order.
+     */
+    byte[] lastKey() {
+        return key(offsets[count - 1]);
+    }
+
+    private byte[] key(int offset) {
+        int keyOffset = offset + RecordRunWriter.HEADER_SIZE;
+        return Arrays.copyOfRange(data, keyOffset, keyOffset + readInt(offset));
+    }
+
+    /**
+     * Adds the line in {@code line[from, to)} as a record keyed according to {@code layout}. Returns false, and
+     * adds nothing, if the buffer might not have room for it.
+     */
+    boolean add(byte[] line, int from, int to, RecordLayout layout) {
+        int payloadLength = to - from;
+        long maxLength = (long) RecordRunWriter.HEADER_SIZE + layout.maxKeyLength(payloadLength) + payloadLength;
+        if (count == offsets.length || used + maxLength > data.length) return false;
+
+        int keyLength = layout.extractKey(line, from, to, data, used + RecordRunWriter.HEADER_SIZE);
+        writeInt(used, keyLength);
+        writeInt(used + Integer.BYTES, payloadLength);
+        System.arraycopy(line, from, data, used + RecordRunWriter.HEADER_SIZE + keyLength, payloadLength);
+
+        prefixes[count] = prefix(data, used + RecordRunWriter.HEADER_SIZE, keyLength);
+        offsets[count++] = used;
+        used += RecordRunWriter.HEADER_SIZE + keyLength + payloadLength;
+        return true;
+    }
+
+    void sort() {
+        mergeSort(0, count);
+    }
+
+    /**
+     * The first 8 bytes of the key in {@code key[offset, offset + length)} as a big-endian long, zero-padded if the
+     * key is shorter. Prefixes compare with {@link Long#compareUnsigned(long, long)} like the keys they start, except
+     * that equal prefixes say nothing about the rest of the keys.
+     */
+    static long prefix(byte[] key, int offset, int length) {
+        long prefix = 0;
+        int n = Math.min(Long.BYTES, length);
+        for (int i = 0; i < n; i++) {
+            prefix |= (key[offset + i] & 0xffL) << ((Long.BYTES - 1 - i) * Byte.SIZE);
+        }
+        return prefix;
+    }
+
+    /**
+     * Passes the records to {@code sink} in their current order and empties the buffer.
+     */
+    void drainTo(RecordSink sink) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int offset = offsets[i];
+            int keyOffset = offset + RecordRunWriter.HEADER_SIZE;
+            int keyLength = readInt(offset);
+            sink.addRecord(data, keyOffset, keyLength, keyOffset + keyLength, readInt(offset + Integer.BYTES));
+        }
+        used = 0;
+        count = 0;
+    }
+
+    private int compare(long prefix1, int offset1, long prefix2, int offset2) {
+        if (prefix1 != prefix2) return Long.compareUnsigned(prefix1, prefix2);
+
+        int key1 = offset1 + RecordRunWriter.HEADER_SIZE;
+        int key2 = offset2 + RecordRunWriter.HEADER_SIZE;
+        return Arrays.compareUnsigned(data, key1, key1 + readInt(offset1), data, key2, key2 + readInt(offset2));
+    }
+
+    /**
+     * Stable merge sort of the entries in {@code [from, to)}, using the scratch arrays for merging.
+     */
+    private void mergeSort(int from, int to) {
+        long[] p = prefixes;
+        int[] a = offsets;
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                long prefix = p[i];
+                int entry = a[i];
+                int j = i - 1;
+                while (j >= from && compare(p[j], a[j], prefix, entry) > 0) {
+                    p[j + 1] = p[j];
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                p[j + 1] = prefix;
+                a[j + 1] = entry;
+            }
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        if (compare(p[mid - 1], a[mid - 1], p[mid], a[mid]) <= 0) return;
+
+        long[] q = prefixScratch;
+        int[] b = scratch;
+        System.arraycopy(p, from, q, from, to - from);
+        System.arraycopy(a, from, b, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compare(q[i], b[i], q[j], b[j]) <= 0)) {
+                p[k] = q[i];
+                a[k] = b[i++];
+            } else {
+                p[k] = q[j];
+                a[k] = b[j++];
+            }
+        }
+    }
+
+    private int readInt(int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+                | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    }
+
+    private void writeInt(int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
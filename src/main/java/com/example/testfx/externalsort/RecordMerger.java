@@ -0,0 +1,101 @@
+package com.example.testfx.externalsort;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * k-way merge of record runs with a tree of losers, laid out like {@link LoserTreeMerger}'s. Matches compare the
+ * normalized keys as unsigned bytes; on equal keys the input listed first wins, so the merge is stable.
+ *
+ * The 8-byte key prefix of each input's current record (see {@link RecordBuffer#prefix(byte[], int, int)}) is kept
+ * in an array, so matches only read the records themselves when prefixes tie.
+ */
+class RecordMerger {
+    private final RecordRunReader[] inputs;
+    private final boolean[] exhausted;
+    private final long[] prefixes;
+    private final int[] tree;
+
+    RecordMerger(List<RecordRunReader> inputs) {
+        this.inputs = inputs.toArray(new RecordRunReader[0]);
+        this.exhausted = new boolean[this.inputs.length];
+        this.prefixes = new long[this.inputs.length];
+        this.tree = new int[this.inputs.length];
+    }
+
+    void merge(RecordSink output) throws IOException {
+        int k = inputs.length;
+        if (k == 0) return;
+
+        for (int i = 0; i < k; i++) {
+            advance(i);
+        }
+
+        int winner = build(k);
+        while (!exhausted[winner]) {
+            RecordRunReader input = inputs[winner];
+            output.addRecord(input.buffer(), input.keyOffset(), input.keyLength(), input.payloadOffset(),
+                    input.payloadLength());
+            advance(winner);
+            winner = replay(winner, k);
+        }
+    }
+
+    private int build(int k) {
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++) {
+            winners[k + i] = i;
+        }
+
+        for (int node = k - 1; node > 0; node--) {
+            int left = winners[2 * node];
+            int right = winners[2 * node + 1];
+            if (beats(left, right)) {
+                winners[node] = left;
+                tree[node] = right;
+            } else {
+                winners[node] = right;
+                tree[node] = left;
+            }
+        }
+
+        tree[0] = k > 1 ? winners[1] : 0;
+        return tree[0];
+    }
+
+    private int replay(int previousWinner, int k) {
+        int candidate = previousWinner;
+        for (int node = (k + previousWinner) >>> 1; node > 0; node >>>= 1) {
+            int storedLoser = tree[node];
+            if (!beats(candidate, storedLoser)) {
+                tree[node] = candidate;
+                candidate = storedLoser;
+            }
+        }
+
+        tree[0] = candidate;
+        return candidate;
+    }
+
+    private boolean beats(int a, int b) {
+        if (exhausted[a]) return false;
+        if (exhausted[b]) return true;
+        if (prefixes[a] != prefixes[b]) return Long.compareUnsigned(prefixes[a], prefixes[b]) < 0;
+
+        RecordRunReader inputA = inputs[a];
+        RecordRunReader inputB = inputs[b];
+        int cmp = Arrays.compareUnsigned(
+                inputA.buffer(), inputA.keyOffset(), inputA.keyOffset() + inputA.keyLength(),
+                inputB.buffer(), inputB.keyOffset(), inputB.keyOffset() + inputB.keyLength());
+        return cmp < 0 || (cmp == 0 && a < b);
+    }
+
+    private void advance(int input) throws IOException {
+        RecordRunReader reader = inputs[input];
+        exhausted[input] = !reader.next();
+        if (!exhausted[input]) {
+            prefixes[input] = RecordBuffer.prefix(reader.buffer(), reader.keyOffset(), reader.keyLength());
+        }
+    }
+}
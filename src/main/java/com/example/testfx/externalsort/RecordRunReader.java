@@ -0,0 +1,101 @@
+package com.example.testfx.externalsort;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads back a run written by {@link RecordRunWriter}, one record at a time. The current record is a slice of
+ * {@link #buffer()}, which grows if a record does not fit in it.
+ */
+class RecordRunReader implements Closeable {
+    private final FileChannel channel;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private long filePosition;
+
+    private int keyOffset;
+    private int keyLength;
+    private int payloadOffset;
+    private int payloadLength;
+
+    RecordRunReader(File file, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.buffer = new byte[Math.max(RecordRunWriter.HEADER_SIZE, bufferSize)];
+    }
+
+    /**
+     * Moves to the next record; returns false at the end of the run.
+     */
+    boolean next() throws IOException {
+        if (!ensure(RecordRunWriter.HEADER_SIZE)) return false;
+
+        keyLength = readInt(position);
+        payloadLength = readInt(position + Integer.BYTES);
+        int recordLength = RecordRunWriter.HEADER_SIZE + keyLength + payloadLength;
+        if (!ensure(recordLength)) throw new IOException("Truncated record run");
+
+        keyOffset = position + RecordRunWriter.HEADER_SIZE;
+        payloadOffset = keyOffset + keyLength;
+        position += recordLength;
+        return true;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int keyOffset() {
+        return keyOffset;
+    }
+
+    int keyLength() {
+        return keyLength;
+    }
+
+    int payloadOffset() {
+        return payloadOffset;
+    }
+
+    int payloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Makes at least {@code length} unread bytes available from {@code position}, unless the run ends first.
+     */
+    private boolean ensure(int length) throws IOException {
+        if (limit - position >= length) return true;
+
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        if (buffer.length < length) {
+            byte[] larger = new byte[Math.max(length, 2 * buffer.length)];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+        }
+
+        while (limit < length) {
+            int n = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit), filePosition);
+            if (n < 0) return false;
+            limit += n;
+            filePosition += n;
+        }
+        return true;
+    }
+
+    private int readInt(int offset) {
+        return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16
+                | (buffer[offset + 2] & 0xff) << 8 | (buffer[offset + 3] & 0xff);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.testfx.externalsort;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a run of records, each stored as its key length and payload length (big-endian ints) followed by the
+ * normalized key and the payload, through a buffer of one page. Every page is charged to the sort's
+ * {@link SpillManager} before it is written.
+ */
+class RecordRunWriter implements RecordSink, Closeable {
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final File file;
+    private final SpillManager spillManager;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    RecordRunWriter(File file, int pageSize, SpillManager spillManager) throws IOException {
+        this.file = file;
+        this.spillManager = spillManager;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE, pageSize));
+    }
+
+    @Override
+    public void addRecord(byte[] source, int keyOffset, int keyLength, int payloadOffset, int payloadLength)
+            throws IOException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            flush();
+        }
+        buffer.putInt(keyLength).putInt(payloadLength);
+        put(source, keyOffset, keyLength);
+        put(source, payloadOffset, payloadLength);
+    }
+
+    private void put(byte[] source, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(source, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        spillManager.charge(file, buffer.remaining());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.testfx.externalsort;
+
+import java.io.IOException;
+
+/**
+ * Destination of sorted records: an intermediate record run, or the caller's output in the final merge pass.
+ * Both the normalized key and the payload are slices of {@code buffer} that are only valid during the call.
+ */
+public interface RecordSink {
+
+    void addRecord(byte[] buffer, int keyOffset, int keyLength, int payloadOffset, int payloadLength)
+            throws IOException;
+
+    /**
+     * Pushes out anything the sink still buffers. Called once after the last record.
+     */
+    default void flush() throws IOException {
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * External merge sort of text records: numbers of any supported {@link KeyType}, strings, or delimited rows keyed
+ * on one column. Each line becomes a record holding its normalized key and the line itself as payload.
+ *
+ * Runs are generated by sorting a {@link RecordBuffer} that fills the memory budget, and merged {@link
+ * SortConfig#getFanIn()} at a time until the final merge streams into the caller's {@link RecordSink}. Input that
+ * fits in one buffer is sorted in memory and never written to disk. Run files come from a {@link SpillManager} and
+ * are deleted as soon as they have been merged.
+ *
+ * Merges are planned like {@link MergePlanner}'s: neighbouring runs whose key ranges follow on from each other are
+ * concatenated without reading them, the first intermediate merge takes only as many runs as it must for every
+ * later one to be full, and each merge takes the neighbours that are smallest together. Runs are only ever combined
+ * with their neighbours, so records with equal keys keep their input order.
+ */
+public class RecordSort {
+    private final String inputFilename;
+    private final RecordLayout layout;
+    private final SortConfig config;
+
+    public RecordSort(String inputFilename, RecordLayout layout) {
+        this(inputFilename, layout, new SortConfig());
+    }
+
+    public RecordSort(String inputFilename, RecordLayout layout, SortConfig config) {
+        this.inputFilename = inputFilename;
+        this.layout = layout;
+        this.config = config;
+    }
+
+    /**
+     * Sorts the input into memory as lines. Only suitable for inputs that fit in the heap.
+     */
+    public List<String> sort() throws IOException {
+        List<String> sortedLines = new ArrayList<>();
+        sortTo((buffer, keyOffset, keyLength, payloadOffset, payloadLength) ->
+                sortedLines.add(new String(buffer, payloadOffset, payloadLength, StandardCharsets.UTF_8)));
+        return sortedLines;
+    }
+
+    /**
+     * Sorts the input into a text file, one line per record, replacing {@code output} if it exists.
+     */
+    public void sort(Path output) throws IOException {
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(config.getPageSize());
+            sortTo(new RecordSink() {
+                @Override
+                public void addRecord(byte[] source, int keyOffset, int keyLength, int payloadOffset,
+                                      int payloadLength) throws IOException {
+                    for (int n; payloadLength > 0; payloadOffset += n, payloadLength -= n) {
+                        if (!buffer.hasRemaining()) flush();
+                        n = Math.min(payloadLength, buffer.remaining());
+                        buffer.put(source, payloadOffset, n);
+                    }
+                    if (!buffer.hasRemaining()) flush();
+                    buffer.put((byte) '\n');
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sorts the input into {@code sink}, header line first if the layout has one.
+     */
+    public void sortTo(RecordSink sink) throws IOException {
+        SpillManager spillManager = new SpillManager(config);
+        try {
+            sortTo(sink, spillManager);
+        } finally {
+            spillManager.deleteAll();
+        }
+    }
+
+    private void sortTo(RecordSink sink, SpillManager spillManager) throws IOException {
+        List<RecordRun> runs = new ArrayList<>();
+        RecordBuffer buffer = new RecordBuffer(config.getMemoryBudget() - config.getPageSize());
+        boolean[] header = {layout.hasHeader()};
+
+        forEachLine(new File(inputFilename), (line, from, to) -> {
+            if (header[0]) {
+                header[0] = false;
+                sink.addRecord(line, from, 0, from, to - from);
+                return;
+            }
+            if (buffer.add(line, from, to, layout)) return;
+
+            runs.add(writeRun(buffer, spillManager));
+            if (!buffer.add(line, from, to, layout)) {
+                throw new IOException("Record of " + (to - from) + " bytes does not fit in the memory budget");
+            }
+        });
+
+        if (runs.isEmpty()) {
+            buffer.sort();
+            buffer.drainTo(sink);
+            sink.flush();
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            runs.add(writeRun(buffer, spillManager));
+        }
+
+        merge(mergeDown(concatenateAdjacent(runs, spillManager), spillManager), sink);
+        sink.flush();
+    }
+
+    private RecordRun writeRun(RecordBuffer buffer, SpillManager spillManager) throws IOException {
+        File file = spillManager.createFile();
+        buffer.sort();
+        byte[] firstKey = buffer.firstKey();
+        byte[] lastKey = buffer.lastKey();
+        try (RecordRunWriter writer = new RecordRunWriter(file, config.getPageSize(), spillManager)) {
+            buffer.drainTo(writer);
+        }
+        return new RecordRun(file, firstKey, lastKey);
+    }
+
+    /**
+     * Replaces every sequence of neighbouring runs in which each run's first key is at least the previous run's last
+     * key by one run, laying the files end to end.
+     */
+    private List<RecordRun> concatenateAdjacent(List<RecordRun> runs, SpillManager spillManager) throws IOException {
+        List<RecordRun> planned = new ArrayList<>();
+        for (int from = 0, to; from < runs.size(); from = to) {
+            to = from + 1;
+            while (to < runs.size() && Arrays.compareUnsigned(runs.get(to - 1).lastKey, runs.get(to).firstKey) <= 0) {
+                to++;
+            }
+            planned.add(to - from == 1 ? runs.get(from) : concatenate(runs.subList(from, to), spillManager));
+        }
+        return planned;
+    }
+
+    private RecordRun concatenate(List<RecordRun> runs, SpillManager spillManager) throws IOException {
+        File target = spillManager.createFile();
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+            for (RecordRun run : runs) {
+                try (FileChannel in = FileChannel.open(run.file.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    spillManager.charge(target, size);
+                    for (long position = 0; position < size; ) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+                spillManager.delete(run.file);
+            }
+        }
+        return new RecordRun(target, runs.get(0).firstKey, runs.get(runs.size() - 1).lastKey);
+    }
+
+    /**
+     * Merges neighbouring runs until at most {@link SortConfig#getFanIn()} are left for the final merge, and returns
+     * those.
+     */
+    private List<RecordRun> mergeDown(List<RecordRun> runs, SpillManager spillManager) throws IOException {
+        int fanIn = Math.max(2, config.getFanIn());
+        List<RecordRun> remaining = new ArrayList<>(runs);
+        if (remaining.size() <= fanIn) return remaining;
+
+        for (int width = MergePlanner.firstMergeWidth(remaining.size(), fanIn, fanIn); remaining.size() > fanIn;
+             width = fanIn) {
+            int from = smallestNeighbours(remaining, width);
+            List<RecordRun> inputs = remaining.subList(from, from + width);
+            File file = spillManager.createFile();
+            try (RecordRunWriter writer = new RecordRunWriter(file, config.getPageSize(), spillManager)) {
+                merge(inputs, writer);
+            }
+
+            byte[] firstKey = inputs.get(0).firstKey;
+            byte[] lastKey = inputs.get(0).lastKey;
+            for (RecordRun input : inputs) {
+                if (Arrays.compareUnsigned(input.firstKey, firstKey) < 0) firstKey = input.firstKey;
+                if (Arrays.compareUnsigned(input.lastKey, lastKey) > 0) lastKey = input.lastKey;
+                spillManager.delete(input.file);
+            }
+            inputs.clear();
+            remaining.add(from, new RecordRun(file, firstKey, lastKey));
+        }
+        return remaining;
+    }
+
+    /**
+     * Index of the first of the {@code width} neighbouring runs with the fewest bytes between them.
+     */
+    private static int smallestNeighbours(List<RecordRun> runs, int width) {
+        long size = 0;
+        for (int i = 0; i < width; i++) {
+            size += runs.get(i).size;
+        }
+
+        int best = 0;
+        long bestSize = size;
+        for (int from = 1; from + width <= runs.size(); from++) {
+            size += runs.get(from + width - 1).size - runs.get(from - 1).size;
+            if (size < bestSize) {
+                best = from;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    private void merge(List<RecordRun> runs, RecordSink output) throws IOException {
+        List<RecordRunReader> readers = new ArrayList<>();
+        try {
+            for (RecordRun run : runs) {
+                readers.add(new RecordRunReader(run.file, config.getPageSize() * config.getReadAheadPages()));
+            }
+            new RecordMerger(readers).merge(output);
+        } finally {
+            for (RecordRunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * A run file with the smallest and largest normalized keys in it.
+     */
+    private static final class RecordRun {
+        final File file;
+        final long size;
+        final byte[] firstKey;
+        final byte[] lastKey;
+
+        RecordRun(File file, byte[] firstKey, byte[] lastKey) {
+            this.file = file;
+            this.size = file.length();
+            this.firstKey = firstKey;
+            this.lastKey = lastKey;
+        }
+    }
+
+    private interface LineHandler {
+        void line(byte[] buffer, int from, int to) throws IOException;
+    }
+
+    /**
+     * Calls {@code handler} with every non-empty line of the file, without its line terminator. Lines are
+     * slices of a reused block, which grows if a single line does not fit.
+     */
+    private static void forEachLine(File file, LineHandler handler) throws IOException {
+        byte[] block = new byte[TextIngest.BLOCK_SIZE];
+        int limit = 0;
+        int scanned = 0;
+        long position = 0;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (true) {
+                int n = channel.read(ByteBuffer.wrap(block, limit, block.length - limit), position);
+                if (n > 0) {
+                    position += n;
+                    limit += n;
+                }
+
+                int lineStart = 0;
+                for (int i = scanned; i < limit; i++) {
+                    if (block[i] == '\n') {
+                        line(handler, block, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+
+                if (n < 0) {
+                    line(handler, block, lineStart, limit);
+                    return;
+                }
+
+                // Keep the incomplete last line for the next block
+                System.arraycopy(block, lineStart, block, 0, limit - lineStart);
+                limit -= lineStart;
+                scanned = limit;
+                if (limit == block.length) {
+                    byte[] larger = new byte[2 * block.length];
+                    System.arraycopy(block, 0, larger, 0, limit);
+                    block = larger;
+                }
+            }
+        }
+    }
+
+    private static void line(LineHandler handler, byte[] block, int from, int to) throws IOException {
+        if (to > from && block[to - 1] == '\r') to--;
+        if (to > from) handler.line(block, from, to);
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run generation by replacement selection.
+ *
+ * Keys are kept in a min-heap that fills the memory budget (less the input and output pages). The smallest
+ * key is written to the current run and replaced by the next input key. An input key smaller than the key just
+ * written can no longer join the current run; it is parked at the end of the array, shrinking the heap of the
+ * current run by one. When that heap is empty, the parked keys become the heap of the next run.
+ *
+ * On random input the runs come out about twice as long as the heap; already-sorted input yields a single run.
+ */
+public class ReplacementSelection implements RunGenerator {
+    private final ExternalSort externalSort;
+    private final int[] heap;
+
+    // Keys in [0, heapSize) belong to the current run, keys in [heapSize, count) to the next one
+    private int heapSize;
+    private int count;
+    private boolean filling = true;
+
+    private Run currentRun;
+    private final List<Run> runs = new ArrayList<>();
+
+    ReplacementSelection(ExternalSort externalSort) {
+        this(externalSort, capacity(externalSort.getConfig()));
+    }
+
+    ReplacementSelection(ExternalSort externalSort, int capacity) {
+        this.externalSort = externalSort;
+        this.heap = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Number of keys that fit in the memory budget once an input page and the output pages are set aside.
+     */
+    static int capacity(SortConfig config) {
+        long bytes = config.getMemoryBudget() - (1L + config.getWriteBehindPages()) * config.getPageSize();
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, bytes / Page.FIELD_SIZE));
+    }
+
+    /**
+     * Feeds pages {@code fromPage} (inclusive) to {@code toPage} (exclusive) of a binary file through the heap.
+     */
+    public List<Run> generateRuns(File file, int fromPage, int toPage) throws IOException {
+        BufferPool bufferPool = externalSort.getBufferPool();
+        final int INPUT_BUFFER_INDEX = 0;
+
+        for (int pageNo = fromPage; pageNo < toPage; pageNo++) {
+            Page page = bufferPool.readPage(file, pageNo, INPUT_BUFFER_INDEX);
+            for (int i = 0; i < page.size(); i++) {
+                add(page.getInt(i));
+            }
+        }
+
+        return finish();
+    }
+
+    @Override
+    public void addField(int key) throws IOException {
+        add(key);
+    }
+
+    public void add(int key) throws IOException {
+        if (filling) {
+            heap[count++] = key;
+            if (count == heap.length) {
+                heapSize = count;
+                heapify(heapSize);
+                filling = false;
+            }
+            return;
+        }
+
+        int min = heap[0];
+        output(min);
+
+        if (key >= min) {
+            heap[0] = key;
+        } else {
+            heapSize--;
+            heap[0] = heap[heapSize];
+            heap[heapSize] = key;
+        }
+        siftDown(0, heapSize);
+
+        if (heapSize == 0) {
+            startNextRun(count);
+        }
+    }
+
+    /**
+     * Drains the heap and returns every run generated so far.
+     */
+    public List<Run> finish() throws IOException {
+        if (filling) {
+            heapSize = count;
+            heapify(heapSize);
+            filling = false;
+        }
+
+        int nextRunStart = heapSize;
+        drain();
+
+        if (nextRunStart < count) {
+            int parked = count - nextRunStart;
+            System.arraycopy(heap, nextRunStart, heap, 0, parked);
+            startNextRun(parked);
+            drain();
+        }
+
+        endCurrentRun();
+        count = 0;
+        filling = true;
+        return runs;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        finish();
+    }
+
+    @Override
+    public List<Run> runs() {
+        return runs;
+    }
+
+    private void drain() throws IOException {
+        while (heapSize > 0) {
+            output(heap[0]);
+            heapSize--;
+            heap[0] = heap[heapSize];
+            siftDown(0, heapSize);
+        }
+    }
+
+    private void output(int key) throws IOException {
+        if (currentRun == null) {
+            currentRun = new Run(externalSort);
+        }
+        currentRun.addField(key);
+    }
+
+    private void startNextRun(int size) throws IOException {
+        endCurrentRun();
+        count = size;
+        heapSize = size;
+        heapify(heapSize);
+    }
+
+    private void endCurrentRun() throws IOException {
+        if (currentRun != null) {
+            currentRun.flush();
+            currentRun.close();
+            runs.add(currentRun);
+            currentRun = null;
+        }
+    }
+
+    private void heapify(int size) {
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i, size);
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        int key = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right] < heap[child]) child = right;
+            if (key <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+}
@@ -2,119 +2,231 @@ package com.example.testfx.externalsort;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.nio.ByteBuffer;
 
-public class Run {
+public class Run implements SortSink {
     private File file;
     private ExternalSort externalSort; // Add this field
-
+    private RunSummary summary;
+    private final RunCodec codec;
+    private int[] frameValues;
+    private int frameSize;
+    private int[] frameWords;
+    private ByteBuffer frame;
+
+    /**
+     * A run stored, uncompressed, in {@code file}. If the file is empty the run's summary is recorded as it is
+     * written.
+     */
     Run(File file, ExternalSort externalSort) {
         this.file = file;
         this.externalSort = externalSort;
+        this.codec = null;
+        if (file.length() == 0) {
+            this.summary = new RunSummary(externalSort.getBufferPool().getPageSize());
+        }
     }
 
+    /**
+     * A new intermediate run in a spill file, compressed with the configured {@link RunCodec} if any.
+     */
     Run(ExternalSort externalSort) throws IOException {
-        this.file = File.createTempFile("externalsort", ".tmp");
-        this.file.deleteOnExit();
+        this(externalSort, externalSort.getConfig().getRunCodec());
+    }
+
+    /**
+     * A new run in a spill file, compressed with {@code codec} unless it is null.
+     */
+    Run(ExternalSort externalSort, RunCodec codec) throws IOException {
+        this.file = externalSort.getSpillManager().createFile();
         this.externalSort = externalSort;
+        this.codec = codec;
+        this.summary = new RunSummary(externalSort.getBufferPool().getPageSize());
     }
     // In Run.java, add another constructor variant
 Run(File file, ExternalSortWithOffsetValues externalSort) {
-    this.file = file;
-    this.externalSort = externalSort; // This might need adjustment based on your code structure
+    this(file, (ExternalSort) externalSort);
 }
 
 // And add another constructor for no-args
 Run(ExternalSortWithOffsetValues externalSort) throws IOException {
-    this.file = File.createTempFile("externalsort", ".tmp");
-    this.file.deleteOnExit();
-    this.externalSort = externalSort; // This might need adjustment based on your code structure
+    this((ExternalSort) externalSort);
 }
 
-    public void addField(Integer field) throws IOException {
-        externalSort.getBufferPool().addToOutputBuffer(this.file, field);
+    public File getFile() {
+        return file;
     }
 
-    public RunIterator iterator(int bufferIndex) {
-        return new RunIterator(file, bufferIndex, externalSort);
+    /**
+     * The codec the run is compressed with, or null.
+     */
+    public RunCodec getCodec() {
+        return codec;
     }
 
-    public void flush() throws IOException {
-        BufferPool pool = externalSort.getBufferPool();
-        pool.flushPage(this.file, pool.getOutputBufferIndex());
+    /**
+     * Number of fields in the run. Without compression all pages but the last are full, so this follows from the
+     * file length; a compressed run counts them in its summary.
+     */
+    public long numFields() {
+        return codec == null ? file.length() / Page.FIELD_SIZE : summary.getNumFields();
     }
-}
 
-class RunIterator implements Iterator<Integer> {
-    private int currentPageNumber;
-    private Integer next;
-    private Integer current;
-    private File file;
-    private Iterator<Integer> pageIterator;
-    private int numPages;
-    private int bufferIndex;
-    private ExternalSort externalSort; // Add this field
+    /**
+     * Smallest value of the run, which being sorted is its first field. Must not be called on an empty run.
+     */
+    public int min() throws IOException {
+        return summary().getMin();
+    }
 
-    RunIterator(File file, int bufferIndex, ExternalSort externalSort) {
-        this.file = file;
-        this.bufferIndex = bufferIndex;
-        this.currentPageNumber = 0;
-        this.numPages = (int) Math.ceil((double)file.length() / Page.PAGE_SIZE);
-        this.externalSort = externalSort;
+    /**
+     * Largest value of the run, its last field. Must not be called on an empty run.
+     */
+    public int max() throws IOException {
+        return summary().getMax();
+    }
+
+    /**
+     * The run's summary: the one recorded while it was written or saved next to it, if that still covers the
+     * whole file, otherwise one made from its first and last field, without index.
+     */
+    public RunSummary summary() throws IOException {
+        if (codec != null) return summary;
+
+        long numFields = numFields();
+        if (summary == null || summary.getNumFields() != numFields) {
+            summary = RunSummary.load(RunSummary.fileFor(file));
+        }
+        if (summary == null || summary.getNumFields() != numFields) {
+            int pageSize = externalSort.getBufferPool().getPageSize();
+            summary = numFields == 0
+                    ? new RunSummary(pageSize)
+                    : RunSummary.of(pageSize, numFields, readField(0), readField(numFields - 1));
+        }
+        return summary;
+    }
+
+    /**
+     * Replaces the summary, e.g. by one put together from the parts of a run that were written separately.
+     */
+    void setSummary(RunSummary summary) {
+        this.summary = summary;
     }
 
-    public void open() throws IOException {
-        this.currentPageNumber = 0;
-        Page page = externalSort.getBufferPool().readPage(file, 0, bufferIndex);
-        this.pageIterator = page.iterator();
+    /**
+     * Stores the summary next to the run file, for a run that outlives the sort.
+     */
+    public void saveSummary() throws IOException {
+        summary().save(RunSummary.fileFor(file));
     }
 
-    public void close() {
-        this.pageIterator = null;
+    private int readField(long index) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Page.FIELD_SIZE);
+        externalSort.getBufferPool().read(file, buffer, index * Page.FIELD_SIZE);
+        return buffer.getInt(0);
     }
 
-    public boolean hasNext() {
-        if (next == null) next = readNextField();
-        return next != null;
+    @Override
+    public void addField(int field) throws IOException {
+        if (summary != null) summary.add(field);
+        if (codec == null) {
+            externalSort.getBufferPool().addToOutputBuffer(this.file, field);
+            return;
+        }
+
+        if (frameValues == null) {
+            frameValues = new int[externalSort.getBufferPool().getPageSize() / Page.FIELD_SIZE];
+        } else if (frameSize == frameValues.length) {
+            writeFrame(frameValues, frameSize);
+            frameSize = 0;
+        }
+        frameValues[frameSize++] = field;
     }
 
-    public Integer current() {
-        return current;
+    /**
+     * Appends a whole page of fields to the run, bypassing the output buffers. Safe to call from several threads
+     * for different runs.
+     */
+    public void append(Page page) throws IOException {
+        if (summary != null) summary.addPage(page);
+        if (codec == null) {
+            externalSort.getBufferPool().append(this.file, page.serialize());
+            return;
+        }
+
+        if (frameValues == null) {
+            frameValues = new int[externalSort.getBufferPool().getPageSize() / Page.FIELD_SIZE];
+        }
+        // Fields added one by one go first
+        writeFrame(frameValues, frameSize);
+        for (int i = 0; i < page.size(); i++) {
+            frameValues[i] = page.getInt(i);
+        }
+        writeFrame(frameValues, page.size());
+        frameSize = 0;
     }
 
-    public Integer next() throws NoSuchElementException {
-        if (next == null) {
-            next = readNextField();
-            if (next == null) throw new NoSuchElementException();
+    /**
+     * Encodes {@code values[0, count)} and appends them as one frame, see {@link RunCodec}.
+     */
+    private void writeFrame(int[] values, int count) throws IOException {
+        if (count == 0) return;
+
+        int maxLength = codec.maxEncodedLength(count);
+        if (frameWords == null || frameWords.length < maxLength) {
+            frameWords = new int[maxLength];
+            frame = ByteBuffer.allocate((maxLength + 2) * Page.FIELD_SIZE);
         }
+        int length = codec.encode(values, count, frameWords);
+        frame.clear();
+        frame.asIntBuffer().put(count).put(length).put(frameWords, 0, length);
+        frame.limit((length + 2) * Page.FIELD_SIZE);
+        externalSort.getBufferPool().append(this.file, frame);
+    }
 
-        Integer result = next;
-        current = result;
-        next = null;
-        return result;
-    }
-
-    private Integer readNextField() {
-        if (this.pageIterator.hasNext()) {
-            return this.pageIterator.next();
-        } else if (++this.currentPageNumber < this.numPages)  {
-            Page page = this.readNextPage();
-            this.pageIterator = page.iterator();
-            return this.pageIterator.next();
-        } else {
-            return null;
+    public RunIterator iterator(int bufferIndex) {
+        return iterator(bufferIndex, 1);
+    }
+
+    /**
+     * Iterator that reads ahead into the {@code numBuffers} buffers starting at {@code firstBufferIndex}.
+     */
+    public RunIterator iterator(int firstBufferIndex, int numBuffers) {
+        if (codec != null) {
+            return new RunIterator(file, codec, numFields(), firstBufferIndex, numBuffers,
+                    externalSort.getBufferPool());
         }
+        return new RunIterator(file, firstBufferIndex, numBuffers, externalSort);
     }
 
-    private Page readNextPage() {
-        try {
-            return externalSort.getBufferPool().readPage(this.file, this.currentPageNumber, bufferIndex);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+    @Override
+    public void flush() throws IOException {
+        if (codec == null) {
+            externalSort.getBufferPool().flushOutput(this.file);
+            return;
         }
 
-        return null;
+        if (frameValues != null) {
+            writeFrame(frameValues, frameSize);
+        }
+        releaseFrameBuffers();
     }
-}
\ No newline at end of file
+
+    /**
+     * The frame buffers are only needed while the run is written.
+     */
+    private void releaseFrameBuffers() {
+        frameValues = null;
+        frameSize = 0;
+        frameWords = null;
+        frame = null;
+    }
+
+    /**
+     * Releases the file handle once the run has been written; reading it later reopens the file.
+     */
+    public void close() throws IOException {
+        releaseFrameBuffers();
+        externalSort.getBufferPool().closeFile(this.file);
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.testfx.externalsort;
+
+/**
+ * Compression of the values of an intermediate run, applied a page at a time.
+ *
+ * A compressed run is a sequence of frames: the number of values, the number of words that encode them, and the
+ * words, all written as big-endian ints like the fields of an uncompressed run. The pages of the file are thus read
+ * and written as before, and {@link RunIterator} decodes the frames while it reads. Runs are only compressed when
+ * {@link SortConfig#setRunCodec(RunCodec)} is set; the final output never is.
+ */
+public interface RunCodec {
+
+    /**
+     * Most words that {@link #encode(int[], int, int[])} may use for {@code count} values.
+     */
+    int maxEncodedLength(int count);
+
+    /**
+     * Encodes {@code values[0, count)} into {@code words} from index 0; returns the number of words used.
+     */
+    int encode(int[] values, int count, int[] words);
+
+    /**
+     * Decodes {@code count} values from {@code words[0, length)} into {@code values} from index 0.
+     */
+    void decode(int[] words, int length, int count, int[] values);
+}
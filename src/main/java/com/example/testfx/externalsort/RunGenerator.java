@@ -0,0 +1,14 @@
+package com.example.testfx.externalsort;
+
+import java.util.List;
+
+/**
+ * Run generation fed one value at a time, e.g. straight from the text parser. {@link #flush()} ends the last run.
+ */
+interface RunGenerator extends SortSink {
+
+    /**
+     * The runs completed so far; after {@link #flush()}, all of them.
+     */
+    List<Run> runs();
+}
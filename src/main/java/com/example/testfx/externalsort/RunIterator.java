@@ -0,0 +1,261 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over the fields of a run page by page.
+ *
+ * Given more than one buffer, page {@code p} is kept in buffer {@code p % numBuffers} and the following pages are
+ * read ahead on the pool's I/O thread: as soon as a page has been consumed its buffer is reused to fetch the page
+ * {@code numBuffers} positions further on.
+ *
+ * An iterator can also be limited to a range of fields, which starts and ends anywhere within a page.
+ *
+ * With {@link SortConfig.IoStrategy#MAPPED} the run is memory-mapped in windows of up to
+ * {@link #MAPPED_WINDOW_FIELDS} fields instead, and the fields are read straight from the mapping.
+ *
+ * A run compressed with a {@link RunCodec} is read the same way, page by page, as a stream of words from which one
+ * frame at a time is decoded into an array of values. Such an iterator always covers the whole run.
+ *
+ * A page that cannot be read while iterating makes {@link #hasNext()} or {@link #nextInt()} throw an
+ * {@link UncheckedIOException}, which the merge unwraps so that the sort fails with the underlying
+ * {@link IOException}.
+ */
+public class RunIterator implements PrimitiveIterator.OfInt {
+    static final int MAPPED_WINDOW_FIELDS = 1 << 28;
+
+    private int currentPageNumber;
+    private long fromField;
+    private long remaining;
+    private int current;
+    private boolean hasCurrent;
+    private int previous;
+    private boolean hasPrevious;
+    private File file;
+    private Page page;
+    private int positionInPage;
+    private int numPages; // exclusive bound on the pages of the range
+    private int bufferIndex;
+    private int numBuffers;
+    private Future<Page>[] pendingReads;
+    private BufferPool bufferPool;
+    private IntBuffer mappedFields;
+    private long mappedWindowStart;
+    private RunCodec codec;
+    private long fieldsRemaining;
+    private int[] frameWords;
+    private int[] frameValues;
+    private int frameSize;
+    private int framePosition;
+
+    RunIterator(File file, int bufferIndex, ExternalSort externalSort) {
+        this(file, bufferIndex, 1, externalSort);
+    }
+
+    RunIterator(File file, int bufferIndex, int numBuffers, ExternalSort externalSort) {
+        this(file, 0, file.length() / Page.FIELD_SIZE, bufferIndex, numBuffers, externalSort.getBufferPool());
+    }
+
+    /**
+     * Iterator over the {@code numFields} fields of a run compressed with {@code codec}.
+     */
+    RunIterator(File file, RunCodec codec, long numFields, int bufferIndex, int numBuffers, BufferPool bufferPool) {
+        this(file, 0, file.length() / Page.FIELD_SIZE, bufferIndex, numBuffers, bufferPool);
+        this.codec = codec;
+        this.fieldsRemaining = numFields;
+    }
+
+    /**
+     * Iterator over the fields {@code fromField} (inclusive) to {@code toField} (exclusive) of a run, reading
+     * through the given pool.
+     */
+    @SuppressWarnings("unchecked")
+    RunIterator(File file, long fromField, long toField, int bufferIndex, int numBuffers, BufferPool bufferPool) {
+        int fieldsPerPage = bufferPool.getPageSize() / Page.FIELD_SIZE;
+        this.file = file;
+        this.fromField = fromField;
+        this.remaining = toField - fromField;
+        this.bufferIndex = bufferIndex;
+        this.numBuffers = numBuffers;
+        this.currentPageNumber = (int) (fromField / fieldsPerPage);
+        this.bufferPool = bufferPool;
+        this.numPages = toField > fromField ? (int) ((toField - 1) / fieldsPerPage) + 1 : currentPageNumber;
+        this.pendingReads = (Future<Page>[]) new Future<?>[numBuffers];
+    }
+
+    public void open() throws IOException {
+        int fieldsPerPage = bufferPool.getPageSize() / Page.FIELD_SIZE;
+        int firstPage = (int) (fromField / fieldsPerPage);
+        this.currentPageNumber = firstPage;
+        this.positionInPage = (int) (fromField % fieldsPerPage);
+
+        if (bufferPool.getIoStrategy() == SortConfig.IoStrategy.MAPPED && codec == null) {
+            mapWindow(fromField);
+            return;
+        }
+
+        if (numBuffers == 1 || firstPage >= numPages) {
+            this.page = bufferPool.readPage(file, firstPage, bufferIndex);
+            return;
+        }
+
+        for (int pageNo = firstPage; pageNo < Math.min(firstPage + numBuffers, numPages); pageNo++) {
+            readAhead(pageNo);
+        }
+        this.page = awaitPage(firstPage);
+    }
+
+    /**
+     * Releases the run file's handle. Called as soon as the run is exhausted, and again harmlessly by the owner.
+     */
+    public void close() throws IOException {
+        for (int i = 0; i < numBuffers; i++) {
+            if (pendingReads[i] != null) {
+                BufferPool.await(pendingReads[i]);
+                pendingReads[i] = null;
+            }
+        }
+        bufferPool.closeFile(file);
+    }
+
+    /**
+     * Closes every iterator, going on past one that fails to close; the first failure is rethrown at the end.
+     */
+    static void closeAll(List<RunIterator> iterators) throws IOException {
+        IOException failure = null;
+        for (RunIterator iterator : iterators) {
+            try {
+                iterator.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    public boolean hasNext() {
+        return codec != null ? fieldsRemaining > 0 : hasNextWord();
+    }
+
+    /**
+     * Whether the file has more words: fields of an uncompressed run, frame contents of a compressed one.
+     */
+    private boolean hasNextWord() {
+        if (remaining == 0) return false;
+        if (mappedFields != null) {
+            if (!mappedFields.hasRemaining()) mapNextWindow();
+            return true;
+        }
+        while (positionInPage >= page.size()) {
+            if (currentPageNumber + 1 >= numPages) return false;
+            currentPageNumber++;
+            page = readNextPage();
+            positionInPage = 0;
+        }
+        return true;
+    }
+
+    public int current() {
+        return current;
+    }
+
+    /**
+     * Offset-value code of {@link #current()} relative to its predecessor in the run. Computed on demand, so a
+     * merger that compares keys only does not pay for codes.
+     */
+    public int currentCode() {
+        return hasPrevious ? OffsetValueCode.of(current, previous) : OffsetValueCode.ofFirst(current);
+    }
+
+    public int nextInt() throws NoSuchElementException {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        int result;
+        if (codec != null) {
+            if (framePosition == frameSize) readFrame();
+            result = frameValues[framePosition++];
+            fieldsRemaining--;
+        } else {
+            result = mappedFields != null ? mappedFields.get() : page.getInt(positionInPage++);
+            remaining--;
+        }
+        previous = current;
+        hasPrevious = hasCurrent;
+        current = result;
+        hasCurrent = true;
+        return result;
+    }
+
+    private int nextWord() {
+        if (!hasNextWord()) throw new NoSuchElementException(file + " ends within a frame");
+        remaining--;
+        return page.getInt(positionInPage++);
+    }
+
+    /**
+     * Decodes the next frame: its number of values, its number of words and the words.
+     */
+    private void readFrame() {
+        int count = nextWord();
+        int length = nextWord();
+        if (frameWords == null || frameWords.length < length) frameWords = new int[length];
+        if (frameValues == null || frameValues.length < count) frameValues = new int[count];
+        for (int i = 0; i < length; i++) {
+            frameWords[i] = nextWord();
+        }
+        codec.decode(frameWords, length, count, frameValues);
+        frameSize = count;
+        framePosition = 0;
+    }
+
+    private void mapWindow(long firstField) throws IOException {
+        long numFields = Math.min(remaining, MAPPED_WINDOW_FIELDS);
+        this.mappedFields = bufferPool.map(file, firstField * Page.FIELD_SIZE, numFields * Page.FIELD_SIZE)
+                .asIntBuffer();
+        this.mappedWindowStart = firstField;
+    }
+
+    private void mapNextWindow() {
+        try {
+            mapWindow(mappedWindowStart + mappedFields.capacity());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readAhead(int pageNo) {
+        int slot = pageNo % numBuffers;
+        pendingReads[slot] = bufferPool.readPageAsync(file, pageNo, bufferIndex + slot);
+    }
+
+    private Page awaitPage(int pageNo) throws IOException {
+        int slot = pageNo % numBuffers;
+        Future<Page> pendingRead = pendingReads[slot];
+        pendingReads[slot] = null;
+        return BufferPool.await(pendingRead);
+    }
+
+    private Page readNextPage() {
+        try {
+            if (numBuffers == 1) {
+                return bufferPool.readPage(this.file, this.currentPageNumber, bufferIndex);
+            }
+
+            // The previous page's buffer is free again: use it for the page numBuffers ahead
+            int pageToPrefetch = this.currentPageNumber - 1 + numBuffers;
+            if (pageToPrefetch < numPages) {
+                readAhead(pageToPrefetch);
+            }
+            return awaitPage(this.currentPageNumber);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.testfx.externalsort;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What is known about a sorted run without reading it: its number of fields, its smallest and largest key, and a
+ * sparse index holding the first key of every page as the run was written, together with the field it is at.
+ *
+ * A summary is recorded while the run is written, see {@link #add(int)} and {@link #addPage(Page)}. Runs whose
+ * writer kept none are summarised from their first and last field, without an index. The final output of a sort
+ * can keep its summary next to it in {@code <output>.summary}, see {@link #save(File)}; run files themselves stay
+ * plain arrays of ints so they can still be mapped, cut by position and concatenated by channel transfers.
+ */
+public final class RunSummary {
+    private static final System.Logger LOG = System.getLogger(RunSummary.class.getName());
+    private static final int MAGIC = 0x52554e53; // "RUNS"
+
+    private final int pageSize;
+    private long numFields;
+    private int min;
+    private int max;
+    private int indexSize;
+    private long[] positions;
+    private int[] keys;
+
+    /**
+     * An empty summary, to be filled while writing a run with pages of {@code pageSize} bytes.
+     */
+    RunSummary(int pageSize) {
+        this(pageSize, 0, 0, 0, new long[16], new int[16], 0);
+    }
+
+    private RunSummary(int pageSize, long numFields, int min, int max, long[] positions, int[] keys, int indexSize) {
+        this.pageSize = pageSize;
+        this.numFields = numFields;
+        this.min = min;
+        this.max = max;
+        this.positions = positions;
+        this.keys = keys;
+        this.indexSize = indexSize;
+    }
+
+    /**
+     * A summary without index, of a run known only by its length and end values.
+     */
+    static RunSummary of(int pageSize, long numFields, int min, int max) {
+        return new RunSummary(pageSize, numFields, min, max, new long[0], new int[0], 0);
+    }
+
+    /**
+     * A summary indexing every page of a run of {@code numFields} fields, whose pages start with {@code pageKeys}.
+     */
+    static RunSummary ofPages(int pageSize, long numFields, int[] pageKeys, int max) {
+        long[] positions = new long[pageKeys.length];
+        for (int i = 0; i < pageKeys.length; i++) {
+            positions[i] = (long) i * (pageSize / Page.FIELD_SIZE);
+        }
+        int min = pageKeys.length > 0 ? pageKeys[0] : 0;
+        return new RunSummary(pageSize, numFields, min, max, positions, pageKeys.clone(), pageKeys.length);
+    }
+
+    /**
+     * The summary of runs laid end to end in the given order, as by {@link MergePlanner#concatenateDisjoint(List)}.
+     */
+    static RunSummary concat(List<RunSummary> parts) {
+        RunSummary result = new RunSummary(parts.get(0).pageSize);
+        for (RunSummary part : parts) {
+            if (part.numFields == 0) continue;
+            if (result.numFields == 0) result.min = part.min;
+            for (int i = 0; i < part.indexSize; i++) {
+                result.addEntry(result.numFields + part.positions[i], part.keys[i]);
+            }
+            result.max = part.max;
+            result.numFields += part.numFields;
+        }
+        return result;
+    }
+
+    /**
+     * Records the next field written to the run.
+     */
+    void add(int field) {
+        if (numFields == 0) min = field;
+        if (numFields % (pageSize / Page.FIELD_SIZE) == 0) addEntry(numFields, field);
+        max = field;
+        numFields++;
+    }
+
+    /**
+     * Records a page of fields written to the run in one piece.
+     */
+    void addPage(Page page) {
+        if (page.isEmpty()) return;
+        if (numFields == 0) min = page.getInt(0);
+        addEntry(numFields, page.getInt(0));
+        max = page.getInt(page.size() - 1);
+        numFields += page.size();
+    }
+
+    private void addEntry(long position, int key) {
+        if (indexSize == keys.length) {
+            positions = Arrays.copyOf(positions, Math.max(16, indexSize * 2));
+            keys = Arrays.copyOf(keys, Math.max(16, indexSize * 2));
+        }
+        positions[indexSize] = position;
+        keys[indexSize] = key;
+        indexSize++;
+    }
+
+    public long getNumFields() {
+        return numFields;
+    }
+
+    /**
+     * Smallest key of the run; meaningless if the run is empty.
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Largest key of the run; meaningless if the run is empty.
+     */
+    public int getMax() {
+        return max;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getNumPages() {
+        int fieldsPerPage = pageSize / Page.FIELD_SIZE;
+        return (int) ((numFields + fieldsPerPage - 1) / fieldsPerPage);
+    }
+
+    /**
+     * Number of entries in the sparse index, 0 if the run has none.
+     */
+    public int getIndexSize() {
+        return indexSize;
+    }
+
+    int indexKey(int entry) {
+        return keys[entry];
+    }
+
+    long indexPosition(int entry) {
+        return positions[entry];
+    }
+
+    /**
+     * First field at which a search for {@code key} has to start: the first field greater than {@code key} if
+     * {@code after}, else the first field not less than it, is at or past the returned position.
+     */
+    long searchFrom(int key, boolean after) {
+        int below = entriesBelow(key, after);
+        return below > 0 ? positions[below - 1] : 0;
+    }
+
+    /**
+     * Field at which a search for {@code key} can stop, the counterpart of {@link #searchFrom(int, boolean)}: the
+     * field searched for is at or before the returned position.
+     */
+    long searchTo(int key, boolean after) {
+        int below = entriesBelow(key, after);
+        return below < indexSize ? positions[below] : numFields;
+    }
+
+    /**
+     * Number of index entries whose key lies before the field searched for.
+     */
+    private int entriesBelow(int key, boolean after) {
+        int low = 0;
+        int high = indexSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (after ? keys[mid] <= key : keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The sidecar file holding the summary of {@code run}.
+     */
+    public static File fileFor(File run) {
+        return new File(run.getPath() + ".summary");
+    }
+
+    public void save(File summaryFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(summaryFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(pageSize);
+            out.writeLong(numFields);
+            out.writeInt(min);
+            out.writeInt(max);
+            out.writeInt(indexSize);
+            for (int i = 0; i < indexSize; i++) {
+                out.writeLong(positions[i]);
+                out.writeInt(keys[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a summary, or returns null if there is none or it cannot be read.
+     */
+    public static RunSummary load(File summaryFile) {
+        if (!summaryFile.isFile()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(summaryFile)))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a run summary");
+            int pageSize = in.readInt();
+            long numFields = in.readLong();
+            int min = in.readInt();
+            int max = in.readInt();
+            int indexSize = in.readInt();
+            long[] positions = new long[indexSize];
+            int[] keys = new int[indexSize];
+            for (int i = 0; i < indexSize; i++) {
+                positions[i] = in.readLong();
+                keys[i] = in.readInt();
+            }
+            return new RunSummary(pageSize, numFields, min, max, positions, keys, indexSize);
+        } catch (IOException | RuntimeException e) {
+            LOG.log(System.Logger.Level.WARNING, "Ignoring unreadable run summary {0}: {1}", summaryFile,
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "fields=" + numFields + " min=" + min + " max=" + max + " pages=" + getNumPages()
+                + " indexEntries=" + indexSize;
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Memory and I/O settings shared by the sorters and their {@link BufferPool}.
+ *
+ * The memory budget is divided into pages of {@link #getPageSize()} bytes. During a merge
+ * {@link #getWriteBehindPages()} pages are reserved for the output run and every input run gets
+ * {@link #getReadAheadPages()} pages, so the budget decides the fan-in and therefore the number of merge passes:
+ * {@code ceil(log_fanIn(runs))}. With more than one page per input or output, I/O runs in the background while
+ * the merge works on the pages already in memory.
+ */
+public class SortConfig {
+
+    /**
+     * How the input is cut into initial sorted runs.
+     */
+    public enum RunGeneration {
+        /** Every page is sorted on its own and becomes a run of one page. */
+        PAGE_SORT,
+        /** A heap over the whole memory budget produces runs of about twice the budget (see {@link ReplacementSelection}). */
+        REPLACEMENT_SELECTION,
+        /** {@link #getParallelism()} workers each sort a share of the budget at a time (see {@link ParallelRunGenerator}). */
+        PARALLEL_CHUNK_SORT
+    }
+
+    /**
+     * How run files are read.
+     */
+    public enum IoStrategy {
+        /** Pages are read into heap byte buffers; the channel copies through a temporary direct buffer. */
+        HEAP,
+        /** Pages use direct byte buffers, so the channel reads into them without an intermediate copy. */
+        DIRECT,
+        /**
+         * Merge inputs are memory-mapped and their ints read straight from the page cache, with no page copies
+         * and no read-ahead threads. Other reads use direct buffers.
+         */
+        MAPPED
+    }
+
+    public static final long DEFAULT_MEMORY_BUDGET = 4L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FAN_IN = 256;
+    public static final int DEFAULT_READ_AHEAD_PAGES = 2;
+    public static final int DEFAULT_WRITE_BEHIND_PAGES = 2;
+
+    /** Two input buffers and one output buffer are needed for the smallest possible (2-way) merge. */
+    public static final int MIN_BUFFERS = 3;
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private int pageSize = Page.DEFAULT_PAGE_SIZE;
+    private int maxFanIn = DEFAULT_MAX_FAN_IN;
+    private RunGeneration runGeneration = RunGeneration.REPLACEMENT_SELECTION;
+    private int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+    private int writeBehindPages = DEFAULT_WRITE_BEHIND_PAGES;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean parallelMerge;
+    private boolean pipelinedIngest;
+    private IoStrategy ioStrategy = IoStrategy.HEAP;
+    private RunCodec runCodec;
+    private List<File> spillDirectories = List.of();
+    private long spillQuota = Long.MAX_VALUE;
+
+    public SortConfig() {
+    }
+
+    public SortConfig(long memoryBudget, int pageSize, int maxFanIn) {
+        this.pageSize = checkPageSize(pageSize);
+        this.memoryBudget = checkMemoryBudget(memoryBudget, this.pageSize);
+        this.maxFanIn = checkMaxFanIn(maxFanIn);
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Bytes of page buffers a sort may use, at least {@link #MIN_BUFFERS} pages.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = checkMemoryBudget(memoryBudget, pageSize);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Size of a page in bytes. The memory budget must still hold {@link #MIN_BUFFERS} pages of the new size.
+     */
+    public void setPageSize(int pageSize) {
+        checkMemoryBudget(memoryBudget, checkPageSize(pageSize));
+        this.pageSize = pageSize;
+    }
+
+    public int getMaxFanIn() {
+        return maxFanIn;
+    }
+
+    public void setMaxFanIn(int maxFanIn) {
+        this.maxFanIn = checkMaxFanIn(maxFanIn);
+    }
+
+    public RunGeneration getRunGeneration() {
+        return runGeneration;
+    }
+
+    public void setRunGeneration(RunGeneration runGeneration) {
+        this.runGeneration = runGeneration;
+    }
+
+    /**
+     * Number of pages the memory budget buys.
+     */
+    public int getNumBuffers() {
+        return (int) Math.min(Integer.MAX_VALUE, memoryBudget / pageSize);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Number of threads sorting chunks concurrently with {@link RunGeneration#PARALLEL_CHUNK_SORT}, and the most
+     * key ranges a parallel merge is split into.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    public boolean isParallelMerge() {
+        return parallelMerge;
+    }
+
+    /**
+     * Splits every merge into key ranges that are merged on separate threads (see {@link ParallelMerge}). The
+     * input buffers are shared out among the ranges, so a range is only added while each can still give every
+     * input a page.
+     *
+     * The ranges write straight to their place in the output when that is a run or a file channel. A sink that
+     * only takes fields in order, such as a consumer passed to {@code ExternalSort.sort}, is fed by the first range
+     * while the others go to a spill file that is then read back, so the final merge writes and reads all but the
+     * first range's share of the data once more.
+     */
+    public void setParallelMerge(boolean parallelMerge) {
+        this.parallelMerge = parallelMerge;
+    }
+
+    public boolean isPipelinedIngest() {
+        return pipelinedIngest;
+    }
+
+    /**
+     * Feeds parsed values straight into run generation instead of first converting the whole input to a binary
+     * file and reading it back. The binary file is then only written if asked for (see
+     * {@link ExternalSort#setBinaryCopy(java.io.File)}).
+     */
+    public void setPipelinedIngest(boolean pipelinedIngest) {
+        this.pipelinedIngest = pipelinedIngest;
+    }
+
+    public IoStrategy getIoStrategy() {
+        return ioStrategy;
+    }
+
+    public void setIoStrategy(IoStrategy ioStrategy) {
+        this.ioStrategy = ioStrategy;
+    }
+
+    public RunCodec getRunCodec() {
+        return runCodec;
+    }
+
+    /**
+     * Compresses intermediate runs page by page with {@code runCodec}, e.g. a {@link DeltaForCodec}, trading CPU
+     * time for less I/O in every merge pass; null, the default, keeps them uncompressed. Compressed runs are read
+     * through the buffers even with {@link IoStrategy#MAPPED}, and are merged by a single thread.
+     */
+    public void setRunCodec(RunCodec runCodec) {
+        this.runCodec = runCodec;
+    }
+
+    public List<File> getSpillDirectories() {
+        return spillDirectories;
+    }
+
+    /**
+     * Directories the temporary files are spread over, ideally on separate disks (see {@link SpillManager}). If
+     * empty, the default, they go to the system's temporary directory.
+     */
+    public void setSpillDirectories(List<File> spillDirectories) {
+        this.spillDirectories = List.copyOf(spillDirectories);
+    }
+
+    public long getSpillQuota() {
+        return spillQuota;
+    }
+
+    /**
+     * Most bytes the temporary files of a sort may take at once; a sort that needs more fails. Unlimited by default.
+     */
+    public void setSpillQuota(long spillQuota) {
+        if (spillQuota <= 0) throw new IllegalArgumentException("Spill quota must be positive");
+        this.spillQuota = spillQuota;
+    }
+
+    /**
+     * Requested number of pages buffered per merge input: the page being merged plus the pages read ahead.
+     * One page means synchronous reads.
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        if (readAheadPages < 1) throw new IllegalArgumentException("Each input needs at least one page");
+        this.readAheadPages = readAheadPages;
+    }
+
+    /**
+     * Requested number of output pages: the page being filled plus the pages still being written.
+     * One page means synchronous writes.
+     */
+    public void setWriteBehindPages(int writeBehindPages) {
+        if (writeBehindPages < 1) throw new IllegalArgumentException("The output needs at least one page");
+        this.writeBehindPages = writeBehindPages;
+    }
+
+    /**
+     * Output pages actually used, leaving at least two pages for inputs.
+     */
+    public int getWriteBehindPages() {
+        return Math.max(1, Math.min(writeBehindPages, getNumBuffers() - 2));
+    }
+
+    /**
+     * Pages per input actually used, shrunk if the budget could not otherwise afford a 2-way merge.
+     */
+    public int getReadAheadPages() {
+        return Math.max(1, Math.min(readAheadPages, (getNumBuffers() - getWriteBehindPages()) / 2));
+    }
+
+    /**
+     * Number of runs merged at once: the input buffers divided among the inputs, capped at the configured maximum.
+     */
+    public int getFanIn() {
+        return Math.min(maxFanIn, (getNumBuffers() - getWriteBehindPages()) / getReadAheadPages());
+    }
+
+    /**
+     * Number of merge passes needed to reduce {@code numRuns} runs to one.
+     */
+    public int mergePasses(int numRuns) {
+        int passes = 0;
+        int fanIn = getFanIn();
+        while (numRuns > 1) {
+            numRuns = (numRuns + fanIn - 1) / fanIn;
+            passes++;
+        }
+        return passes;
+    }
+
+    private static int checkPageSize(int pageSize) {
+        if (pageSize < Page.FIELD_SIZE || pageSize % Page.FIELD_SIZE != 0) {
+            throw new IllegalArgumentException("Page size must be a positive multiple of " + Page.FIELD_SIZE);
+        }
+        return pageSize;
+    }
+
+    private static long checkMemoryBudget(long memoryBudget, int pageSize) {
+        if (memoryBudget < (long) MIN_BUFFERS * pageSize) {
+            throw new IllegalArgumentException("Memory budget must hold at least " + MIN_BUFFERS + " pages");
+        }
+        return memoryBudget;
+    }
+
+    private static int checkMaxFanIn(int maxFanIn) {
+        if (maxFanIn < 2) throw new IllegalArgumentException("Fan-in must be at least 2");
+        return maxFanIn;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.zip.CRC32C;
+
+/**
+ * Sidecar describing what of a growing input has been sorted already: the length in bytes and number of rows of
+ * the input prefix that was sorted, a CRC-32C of that prefix, and the binary file holding its sorted values. It is
+ * stored as properties in a directory of the sorter's choosing, under a name made from the input's file name and a
+ * hash of its path, so that inputs of the same name in different places keep apart.
+ *
+ * As long as the input only grows by appended lines, the prefix and its checksum stay the same and the next sort
+ * only has to sort the appended tail and merge it with the previous output.
+ */
+public final class SortIndex {
+    private static final System.Logger LOG = System.getLogger(SortIndex.class.getName());
+    private static final String SORTED_BYTES = "sortedBytes";
+    private static final String SORTED_ROWS = "sortedRows";
+    private static final String CHECKSUM = "checksum";
+    private static final String OUTPUT = "output";
+
+    private final long sortedBytes;
+    private final long sortedRows;
+    private final long checksum;
+    private final File output;
+
+    public SortIndex(long sortedBytes, long sortedRows, long checksum, File output) {
+        this.sortedBytes = sortedBytes;
+        this.sortedRows = sortedRows;
+        this.checksum = checksum;
+        this.output = output;
+    }
+
+    /**
+     * The index file of {@code input} in {@code directory}.
+     */
+    public static File fileFor(File input, File directory) {
+        return new File(directory, stateName(input) + ".metadata");
+    }
+
+    /**
+     * The file in {@code directory} for the sorted values of {@code input}.
+     */
+    public static File outputFor(File input, File directory) {
+        return new File(directory, stateName(input) + ".sorted");
+    }
+
+    private static String stateName(File input) {
+        return input.getName() + "-" + Integer.toHexString(input.getAbsolutePath().hashCode());
+    }
+
+    /**
+     * Reads an index, or returns null if there is none or it is not in this format, e.g. the row count alone that
+     * earlier versions wrote.
+     */
+    public static SortIndex load(File indexFile) {
+        if (!indexFile.isFile()) return null;
+
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(indexFile)) {
+            properties.load(reader);
+            for (String key : new String[]{SORTED_BYTES, SORTED_ROWS, CHECKSUM, OUTPUT}) {
+                if (properties.getProperty(key) == null) {
+                    LOG.log(System.Logger.Level.DEBUG, "Ignoring sort index {0} without {1}", indexFile, key);
+                    return null;
+                }
+            }
+            return new SortIndex(
+                    Long.parseLong(properties.getProperty(SORTED_BYTES)),
+                    Long.parseLong(properties.getProperty(SORTED_ROWS)),
+                    Long.parseLong(properties.getProperty(CHECKSUM)),
+                    new File(properties.getProperty(OUTPUT)));
+        } catch (IOException | RuntimeException e) {
+            LOG.log(System.Logger.Level.WARNING, "Ignoring unreadable sort index {0}: {1}", indexFile, e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(File indexFile) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(SORTED_BYTES, Long.toString(sortedBytes));
+        properties.setProperty(SORTED_ROWS, Long.toString(sortedRows));
+        properties.setProperty(CHECKSUM, Long.toString(checksum));
+        properties.setProperty(OUTPUT, output.getPath());
+        try (Writer writer = new FileWriter(indexFile)) {
+            properties.store(writer, "External sort index");
+        }
+    }
+
+    public long getSortedBytes() {
+        return sortedBytes;
+    }
+
+    public long getSortedRows() {
+        return sortedRows;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    /**
+     * Whether the sorted output is still there, with one value per sorted row, and {@code input} is at least as
+     * long as the sorted prefix. The prefix checksum is checked separately, see {@link #update(CRC32C, File, long,
+     * long)}.
+     */
+    boolean isUsableFor(File input) {
+        return input.length() >= sortedBytes && output.isFile()
+                && output.length() == sortedRows * Page.FIELD_SIZE;
+    }
+
+    /**
+     * Adds the bytes {@code [from, to)} of a file to a running checksum.
+     */
+    static void update(CRC32C checksum, File file, long from, long to) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(TextIngest.BLOCK_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (long position = from; position < to; ) {
+                block.clear().limit((int) Math.min(block.capacity(), to - position));
+                int n = channel.read(block, position);
+                if (n < 0) throw new IOException(file + " ended before byte " + to);
+                position += n;
+                checksum.update(block.flip());
+            }
+        }
+    }
+}
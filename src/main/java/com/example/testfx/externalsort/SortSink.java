@@ -0,0 +1,42 @@
+package com.example.testfx.externalsort;
+
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Destination of sorted fields: an intermediate {@link Run}, or the caller's output during the final merge pass.
+ */
+public interface SortSink {
+
+    void addField(int field) throws IOException;
+
+    /**
+     * Pushes out anything the sink still buffers. Called once after the last field.
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * A sink that passes every field to this sink and then to {@code next}.
+     */
+    default SortSink andThen(SortSink next) {
+        SortSink first = this;
+        return new SortSink() {
+            @Override
+            public void addField(int field) throws IOException {
+                first.addField(field);
+                next.addField(field);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                first.flush();
+                next.flush();
+            }
+        };
+    }
+
+    static SortSink of(IntConsumer consumer) {
+        return consumer::accept;
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.testfx.externalsort;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Figures of the last sort of a sorter: what was ingested, the runs generated, the merges and what every phase
+ * cost in time and I/O. Counters are updated while the sort runs, from any of its threads, and start over with
+ * the next sort, so a registered MBean (see {@link #registerMBean(String)}) always shows the latest sort.
+ *
+ * Bytes read and written are those moved by the sort's buffer pools and run files. Comparisons are those made by
+ * the merger; sorting within pages and heaps is not counted.
+ */
+public class SortStats implements SortStatsMXBean {
+
+    public enum Phase {
+        /** Parsing the text input; with pipelined ingestion this includes run generation. */
+        INGEST,
+        RUN_GENERATION,
+        /** Concatenating, merging and writing the result to the sink. */
+        MERGE
+    }
+
+    private final LongAdder rowsIngested = new LongAdder();
+    private final LongAdder bytesIngested = new LongAdder();
+    private final LongAdder runsGenerated = new LongAdder();
+    private final AtomicLongArray runLengthHistogram = new AtomicLongArray(Long.SIZE);
+    private final List<Integer> mergeFanIns = new ArrayList<>();
+    private final LongAdder plannedMergeBytes = new LongAdder();
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAdder[] nanos = newCounters();
+    private final LongAdder[] bytesRead = newCounters();
+    private final LongAdder[] bytesWritten = newCounters();
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[Phase.values().length];
+        Arrays.setAll(counters, i -> new LongAdder());
+        return counters;
+    }
+
+    /**
+     * Registers these stats with the platform MBean server as
+     * {@code com.example.testfx.externalsort:type=SortStats,name=<name>}.
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.example.testfx.externalsort:type=SortStats,name="
+                + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getRowsIngested() {
+        return rowsIngested.sum();
+    }
+
+    @Override
+    public long getBytesIngested() {
+        return bytesIngested.sum();
+    }
+
+    @Override
+    public long getRunsGenerated() {
+        return runsGenerated.sum();
+    }
+
+    /**
+     * Number of generated runs by length: entry {@code i} counts the runs of {@code 2^i} to {@code 2^(i+1) - 1}
+     * values. Trailing empty entries are left out.
+     */
+    @Override
+    public long[] getRunLengthHistogram() {
+        int length = runLengthHistogram.length();
+        while (length > 0 && runLengthHistogram.get(length - 1) == 0) length--;
+
+        long[] histogram = new long[length];
+        for (int i = 0; i < length; i++) {
+            histogram[i] = runLengthHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Number of merges, each of which reads its inputs once; the final merge into the sink included.
+     */
+    @Override
+    public synchronized int getMerges() {
+        return mergeFanIns.size();
+    }
+
+    /**
+     * Number of runs merged by each merge, in the order they ran.
+     */
+    @Override
+    public synchronized int[] getMergeFanIns() {
+        return mergeFanIns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Bytes the intermediate merges were planned to write before any of them ran, see {@link MergePlanner}.
+     */
+    @Override
+    public long getPlannedMergeBytes() {
+        return plannedMergeBytes.sum();
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    public long getBytesRead(Phase phase) {
+        return bytesRead[phase.ordinal()].sum();
+    }
+
+    public long getBytesWritten(Phase phase) {
+        return bytesWritten[phase.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseNanos() {
+        return byPhase(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseBytesRead() {
+        return byPhase(bytesRead);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseBytesWritten() {
+        return byPhase(bytesWritten);
+    }
+
+    private static Map<String, Long> byPhase(LongAdder[] counters) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            values.put(phase.name(), counters[phase.ordinal()].sum());
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "rows=" + getRowsIngested() + " bytesIngested=" + getBytesIngested() + " runs=" + getRunsGenerated()
+                + " runLengthHistogram=" + Arrays.toString(getRunLengthHistogram())
+                + " mergeFanIns=" + Arrays.toString(getMergeFanIns()) + " plannedMergeBytes=" + getPlannedMergeBytes()
+                + " comparisons=" + getComparisons()
+                + " nanos=" + getPhaseNanos() + " bytesRead=" + getPhaseBytesRead()
+                + " bytesWritten=" + getPhaseBytesWritten();
+    }
+
+    synchronized void reset() {
+        rowsIngested.reset();
+        bytesIngested.reset();
+        runsGenerated.reset();
+        for (int i = 0; i < runLengthHistogram.length(); i++) {
+            runLengthHistogram.set(i, 0);
+        }
+        mergeFanIns.clear();
+        plannedMergeBytes.reset();
+        comparisons.reset();
+        for (Phase phase : Phase.values()) {
+            nanos[phase.ordinal()].reset();
+            bytesRead[phase.ordinal()].reset();
+            bytesWritten[phase.ordinal()].reset();
+        }
+    }
+
+    void addIngested(long rows, long bytes) {
+        rowsIngested.add(rows);
+        bytesIngested.add(bytes);
+    }
+
+    void addRun(long length) {
+        runsGenerated.increment();
+        runLengthHistogram.incrementAndGet(Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(1, length)));
+    }
+
+    synchronized void addMerge(int fanIn) {
+        mergeFanIns.add(fanIn);
+    }
+
+    void addPlannedMergeBytes(long bytes) {
+        plannedMergeBytes.add(bytes);
+    }
+
+    void addComparisons(long count) {
+        comparisons.add(count);
+    }
+
+    /**
+     * Work done within a phase of the sort.
+     */
+    interface PhaseWork<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Runs {@code work} as part of {@code phase}, adding the elapsed time and the I/O of {@code bufferPool} in
+     * between to the phase, and returns its result.
+     */
+    <T> T time(Phase phase, BufferPool bufferPool, PhaseWork<T> work) throws IOException {
+        long startNanos = System.nanoTime();
+        long startBytesRead = bufferPool.getBytesRead();
+        long startBytesWritten = bufferPool.getBytesWritten();
+        try {
+            return work.run();
+        } finally {
+            nanos[phase.ordinal()].add(System.nanoTime() - startNanos);
+            bytesRead[phase.ordinal()].add(bufferPool.getBytesRead() - startBytesRead);
+            bytesWritten[phase.ordinal()].add(bufferPool.getBytesWritten() - startBytesWritten);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.testfx.externalsort;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link SortStats}, for reading the figures of the last sort over JMX. Per-phase figures
+ * are keyed by {@link SortStats.Phase} name.
+ */
+public interface SortStatsMXBean {
+
+    long getRowsIngested();
+
+    long getBytesIngested();
+
+    long getRunsGenerated();
+
+    long[] getRunLengthHistogram();
+
+    int getMerges();
+
+    int[] getMergeFanIns();
+
+    long getPlannedMergeBytes();
+
+    long getComparisons();
+
+    Map<String, Long> getPhaseNanos();
+
+    Map<String, Long> getPhaseBytesRead();
+
+    Map<String, Long> getPhaseBytesWritten();
+}
@@ -0,0 +1,125 @@
+package com.example.testfx.externalsort;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Key lookups in a sorted binary file of big-endian ints, such as the output of
+ * {@link ExternalSort#sort(java.nio.file.Path)} or of {@link ExternalSortWithOffsetValues#sortIncrementally(SortSink)}.
+ *
+ * Searches start from the sparse page index in the file's {@link RunSummary}, which narrows every binary search
+ * down to the span of one index entry, so a lookup reads a page or two and a range query just the pages of the
+ * range. A file without a summary, or whose summary no longer matches its length, is searched without the index.
+ *
+ * Not safe for use by several threads, and only one iterator returned by {@link #range(int, int)} may be in use
+ * at a time.
+ */
+public final class SortedFile implements Closeable {
+    private static final int READ_AHEAD_PAGES = 4;
+    /** The pool's last buffer holds the page being searched; the others are for range iterators. */
+    private static final int SEARCH_BUFFER_INDEX = READ_AHEAD_PAGES;
+
+    private final File file;
+    private final RunSummary summary;
+    private final BufferPool bufferPool;
+    private final int fieldsPerPage;
+    private Page searchPage;
+    private int searchPageNumber = -1;
+
+    public SortedFile(File file) {
+        this.file = file;
+        long numFields = file.length() / Page.FIELD_SIZE;
+        RunSummary saved = RunSummary.load(RunSummary.fileFor(file));
+        this.summary = saved != null && saved.getNumFields() == numFields
+                ? saved
+                : RunSummary.of(Page.DEFAULT_PAGE_SIZE, numFields, 0, 0);
+        this.bufferPool = new BufferPool(READ_AHEAD_PAGES + 1, summary.getPageSize(), 1, SortConfig.IoStrategy.HEAP);
+        this.fieldsPerPage = summary.getPageSize() / Page.FIELD_SIZE;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Number of values in the file.
+     */
+    public long size() {
+        return summary.getNumFields();
+    }
+
+    /**
+     * Whether the searches use a page index.
+     */
+    public boolean isIndexed() {
+        return summary.getIndexSize() > 0;
+    }
+
+    /**
+     * Position of the first value not less than {@code key}, or {@link #size()} if there is none.
+     */
+    public long seek(int key) throws IOException {
+        return search(key, false);
+    }
+
+    /**
+     * Number of values from {@code lo} to {@code hi}, both inclusive.
+     */
+    public long count(int lo, int hi) throws IOException {
+        if (lo > hi) return 0;
+        return search(hi, true) - search(lo, false);
+    }
+
+    /**
+     * The values from {@code lo} to {@code hi}, both inclusive, in order. The iterator reads ahead a few pages and
+     * should be closed when no longer needed; a page it fails to read is reported as an
+     * {@link java.io.UncheckedIOException}.
+     */
+    public RunIterator range(int lo, int hi) throws IOException {
+        long from = search(lo, false);
+        long to = lo > hi ? from : search(hi, true);
+        RunIterator iterator = new RunIterator(file, from, to, 0, READ_AHEAD_PAGES, bufferPool);
+        iterator.open();
+        return iterator;
+    }
+
+    /**
+     * The value at {@code position}.
+     */
+    public int get(long position) throws IOException {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + position + " outside " + file + " of " + size());
+        }
+        int pageNumber = (int) (position / fieldsPerPage);
+        if (pageNumber != searchPageNumber) {
+            searchPage = bufferPool.readPage(file, pageNumber, SEARCH_BUFFER_INDEX);
+            searchPageNumber = pageNumber;
+        }
+        return searchPage.getInt((int) (position % fieldsPerPage));
+    }
+
+    /**
+     * Position of the first value greater than {@code key} if {@code after}, else of the first value not less than
+     * it.
+     */
+    private long search(int key, boolean after) throws IOException {
+        long from = summary.searchFrom(key, after);
+        long to = summary.searchTo(key, after);
+        while (from < to) {
+            long mid = (from + to) >>> 1;
+            int value = get(mid);
+            if (after ? value <= key : value < key) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    @Override
+    public void close() throws IOException {
+        bufferPool.close();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The temporary files of a sort: where they are created, how much disk they may take and when they go away.
+ *
+ * New files are spread round-robin over the {@link SortConfig#getSpillDirectories()}, so runs written one after
+ * the other, which are later merged together, sit on different disks and are read in parallel. Bytes written to
+ * these files are charged against {@link SortConfig#getSpillQuota()}, and a write that would exceed it fails with
+ * an {@link IOException}. Writes through the {@link BufferPool} are charged before they happen, those that go
+ * straight to a channel when they are done.
+ *
+ * A file is deleted, and its bytes given back, as soon as its contents have been consumed, and the sorter deletes
+ * whatever is left when the sort ends. Nothing is left to {@link File#deleteOnExit()}, which would keep every name
+ * until the JVM exits.
+ */
+public class SpillManager {
+    private static final System.Logger LOG = System.getLogger(SpillManager.class.getName());
+
+    private final List<File> directories;
+    private final long quota;
+    private final AtomicInteger nextDirectory = new AtomicInteger();
+    private final Map<File, AtomicLong> files = new ConcurrentHashMap<>();
+    private final AtomicLong bytesInUse = new AtomicLong();
+    private final AtomicLong peakBytesInUse = new AtomicLong();
+
+    public SpillManager(SortConfig config) {
+        this.directories = new ArrayList<>(config.getSpillDirectories());
+        this.quota = config.getSpillQuota();
+    }
+
+    /**
+     * Creates an empty temporary file in the next spill directory.
+     */
+    public File createFile() throws IOException {
+        File directory = null;
+        if (!directories.isEmpty()) {
+            directory = directories.get(Math.floorMod(nextDirectory.getAndIncrement(), directories.size()));
+            Files.createDirectories(directory.toPath());
+        }
+        File file = File.createTempFile("externalsort", ".tmp", directory);
+        files.put(file, new AtomicLong());
+        return file;
+    }
+
+    /**
+     * Whether {@code file} was created here and has not been deleted yet.
+     */
+    public boolean isSpillFile(File file) {
+        return files.containsKey(file);
+    }
+
+    /**
+     * Charges {@code bytes} written to {@code file} against the quota. Files not created here are not charged.
+     *
+     * @throws IOException if the spill files would take more than the quota
+     */
+    void charge(File file, long bytes) throws IOException {
+        AtomicLong charged = files.get(file);
+        if (charged == null || bytes <= 0) return;
+
+        long inUse = bytesInUse.addAndGet(bytes);
+        if (inUse > quota) {
+            bytesInUse.addAndGet(-bytes);
+            throw new IOException("Spill quota of " + quota + " bytes exceeded writing " + bytes + " bytes to "
+                    + file + " with " + (inUse - bytes) + " bytes in use");
+        }
+        charged.addAndGet(bytes);
+        peakBytesInUse.accumulateAndGet(inUse, Math::max);
+    }
+
+    /**
+     * Deletes a spill file whose contents are no longer needed and gives its bytes back. Files not created here,
+     * such as the output of an incremental sort that is merged as a run, are left alone.
+     */
+    public void delete(File file) {
+        AtomicLong charged = files.remove(file);
+        if (charged == null) return;
+
+        bytesInUse.addAndGet(-charged.get());
+        if (!file.delete() && file.exists()) {
+            LOG.log(System.Logger.Level.WARNING, "Could not delete spill file {0}", file);
+        }
+    }
+
+    /**
+     * Deletes every spill file still there.
+     */
+    public void deleteAll() {
+        for (File file : new ArrayList<>(files.keySet())) {
+            delete(file);
+        }
+    }
+
+    /**
+     * Bytes of the spill files not yet deleted.
+     */
+    public long getBytesInUse() {
+        return bytesInUse.get();
+    }
+
+    /**
+     * Most bytes the spill files took at any time.
+     */
+    public long getPeakBytesInUse() {
+        return peakBytesInUse.get();
+    }
+}
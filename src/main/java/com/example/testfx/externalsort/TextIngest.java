@@ -0,0 +1,263 @@
+package com.example.testfx.externalsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Reads the text input, one integer per line, without creating an object per line.
+ *
+ * The file is read in large blocks into a reused byte array and the digits are accumulated as they go by, so a
+ * line may straddle two blocks. Lines are trimmed like {@link String#trim()} and may carry a sign. Large files
+ * are cut at line boundaries into {@link SortConfig#getParallelism()} segments that are parsed concurrently.
+ */
+public class TextIngest {
+    private static final System.Logger LOG = System.getLogger(TextIngest.class.getName());
+    static final int BLOCK_SIZE = 256 * 1024;
+
+    // Parser states within a line
+    private static final int LEADING = 0;
+    private static final int SIGN = 1;
+    private static final int DIGITS = 2;
+    private static final int TRAILING = 3;
+    private static final int INVALID = 4;
+
+    private final ExternalSort externalSort;
+    private final BufferPool bufferPool;
+    private final boolean skipInvalidLines;
+
+    /**
+     * @param skipInvalidLines warn about and skip lines that are not integers instead of failing with a
+     *                         {@link NumberFormatException}
+     */
+    TextIngest(ExternalSort externalSort, boolean skipInvalidLines) {
+        this.externalSort = externalSort;
+        this.bufferPool = externalSort.getBufferPool();
+        this.skipInvalidLines = skipInvalidLines;
+    }
+
+    /**
+     * Converts a text file into a temporary binary file of big-endian ints, the run file format.
+     */
+    public File convertToBinary(File textFile) throws IOException {
+        File binaryFile = bufferPool.createTempFile();
+
+        if (segments(textFile, true).length > 2) {
+            ingest(textFile, true, segment -> field -> { }, binaryFile);
+            return binaryFile;
+        }
+
+        parse(textFile, 0, textFile.length(), field -> bufferPool.addToOutputBuffer(binaryFile, field));
+        bufferPool.flushOutput(binaryFile);
+        bufferPool.closeFile(binaryFile);
+        return binaryFile;
+    }
+
+    /**
+     * Parses the whole text file into {@code sink} on the calling thread and returns the number of values.
+     */
+    public long parse(File textFile, SortSink sink) throws IOException {
+        return parse(textFile, 0, textFile.length(), sink);
+    }
+
+    /**
+     * Parses the text file into the sinks returned by {@code segmentSinks}, one per segment, and flushes each at
+     * the end of its segment. With {@code concurrent} set, a large file is cut into segments that are parsed on
+     * separate threads; otherwise segment 0 is the whole file and is parsed on the calling thread.
+     *
+     * If {@code binaryCopy} is not null the values are also written there, in file order, as big-endian ints.
+     */
+    public void ingest(File textFile, boolean concurrent, IntFunction<SortSink> segmentSinks, File binaryCopy)
+            throws IOException {
+        long[] segments = segments(textFile, concurrent);
+        int numSegments = segments.length - 1;
+
+        if (numSegments == 1) {
+            parseSegment(textFile, segments, 0, segmentSinks.apply(0), binaryCopy);
+            return;
+        }
+
+        // Every segment's copy goes into a file of its own, which are then joined in order
+        File[] parts = new File[numSegments];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int s = 0; s < numSegments; s++) {
+            int segment = s;
+            parts[segment] = binaryCopy == null ? null : bufferPool.createTempFile();
+            tasks.add(() -> {
+                parseSegment(textFile, segments, segment, segmentSinks.apply(segment), parts[segment]);
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numSegments);
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                BufferPool.await(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (binaryCopy != null) {
+            join(parts, binaryCopy);
+        }
+    }
+
+    private void parseSegment(File textFile, long[] segments, int segment, SortSink sink, File binaryCopy)
+            throws IOException {
+        if (binaryCopy == null) {
+            parse(textFile, segments[segment], segments[segment + 1], sink);
+            sink.flush();
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(binaryCopy.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SortSink copyingSink = sink.andThen(new ChannelSink(channel, bufferPool.newPage()));
+            parse(textFile, segments[segment], segments[segment + 1], copyingSink);
+            copyingSink.flush();
+            bufferPool.countIo(0, channel.size());
+            externalSort.getSpillManager().charge(binaryCopy, channel.size());
+        }
+    }
+
+    private void join(File[] parts, File target) throws IOException {
+        SpillManager spillManager = externalSort.getSpillManager();
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (File part : parts) {
+                try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    spillManager.charge(target, size);
+                    for (long transferred = 0; transferred < size; ) {
+                        transferred += in.transferTo(transferred, size - transferred, out);
+                    }
+                }
+                spillManager.delete(part);
+            }
+        }
+    }
+
+    /**
+     * Start offsets of the segments to parse concurrently, followed by the file length. Every offset but the first
+     * is the start of a line.
+     */
+    long[] segments(File textFile, boolean concurrent) throws IOException {
+        long length = textFile.length();
+        int maxSegments = concurrent ? externalSort.getConfig().getParallelism() : 1;
+        int numSegments = (int) Math.max(1, Math.min(maxSegments, length / BLOCK_SIZE));
+
+        long[] segments = new long[numSegments + 1];
+        segments[numSegments] = length;
+        if (numSegments == 1) return segments;
+
+        ByteBuffer probe = ByteBuffer.allocate(Page.DEFAULT_PAGE_SIZE);
+        try (FileChannel channel = FileChannel.open(textFile.toPath(), StandardOpenOption.READ)) {
+            for (int s = 1; s < numSegments; s++) {
+                // Looking for the newline from the byte before leaves a cut that already is at a line start
+                long position = Math.max(segments[s - 1], length * s / numSegments);
+                segments[s] = nextLineStart(channel, position - 1, length, probe);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Offset just after the first newline at or after {@code position}, or {@code length} if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long length, ByteBuffer probe)
+            throws IOException {
+        while (position < length) {
+            probe.clear();
+            int n = channel.read(probe, position);
+            if (n < 0) break;
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') return position + i + 1;
+            }
+            position += n;
+        }
+        return length;
+    }
+
+    /**
+     * Parses the lines starting in {@code [from, to)}; {@code from} must be the start of a line.
+     */
+    long parse(File textFile, long from, long to, SortSink sink) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate((int) Math.max(1, Math.min(BLOCK_SIZE, to - from)));
+        byte[] bytes = block.array();
+        long count = 0;
+
+        int state = LEADING;
+        boolean negative = false;
+        long value = 0;
+        long lineStart = from;
+
+        try (FileChannel channel = FileChannel.open(textFile.toPath(), StandardOpenOption.READ)) {
+            long position = from;
+            while (position < to) {
+                block.clear();
+                block.limit((int) Math.min(bytes.length, to - position));
+                int n = channel.read(block, position);
+                if (n < 0) break;
+
+                for (int i = 0; i < n; i++) {
+                    int b = bytes[i] & 0xff;
+                    if (b == '\n') {
+                        if (endLine(state, negative, value, lineStart, sink)) count++;
+                        state = LEADING;
+                        negative = false;
+                        value = 0;
+                        lineStart = position + i + 1;
+                    } else if (b >= '0' && b <= '9') {
+                        if (state == LEADING || state == SIGN || state == DIGITS) {
+                            value = value * 10 + (b - '0');
+                            // One past Integer.MAX_VALUE is still needed for Integer.MIN_VALUE
+                            state = value > 1L + Integer.MAX_VALUE ? INVALID : DIGITS;
+                        } else {
+                            state = INVALID;
+                        }
+                    } else if (b <= ' ') {
+                        if (state == DIGITS) state = TRAILING;
+                        else if (state == SIGN) state = INVALID;
+                    } else if ((b == '-' || b == '+') && state == LEADING) {
+                        negative = b == '-';
+                        state = SIGN;
+                    } else {
+                        state = INVALID;
+                    }
+                }
+                position += n;
+            }
+
+            // The last line need not end with a newline
+            if (position > lineStart && endLine(state, negative, value, lineStart, sink)) count++;
+        }
+        externalSort.getStats().addIngested(count, to - from);
+        return count;
+    }
+
+    private boolean endLine(int state, boolean negative, long value, long lineStart, SortSink sink)
+            throws IOException {
+        if (state == DIGITS || state == TRAILING) {
+            long signed = negative ? -value : value;
+            if (signed <= Integer.MAX_VALUE) {
+                sink.addField((int) signed);
+                return true;
+            }
+        }
+
+        if (!skipInvalidLines) {
+            throw new NumberFormatException("Line at byte " + lineStart + " is not an integer");
+        }
+        LOG.log(System.Logger.Level.WARNING, "Skipping non-numeric line at byte {0}", lineStart);
+        return false;
+    }
+}
@@ -1,8 +1,10 @@
 module com.example.testfx {
     requires javafx.controls;
     requires javafx.fxml;
+    requires java.management;
 
 
     opens com.example.testfx to javafx.fxml;
     exports com.example.testfx;
+    exports com.example.testfx.externalsort to java.management;
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaForCodecTest {
+    private final RunCodec codec = new DeltaForCodec();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsDifferencesThatWrapAround() {
+        int min = Integer.MIN_VALUE;
+        int max = Integer.MAX_VALUE;
+        roundTrip(min, max);
+        roundTrip(max, min);
+        roundTrip(min, max, min, max);
+        roundTrip(0, min, -1, max, 1, max - 1, min + 1);
+    }
+
+    @Test
+    void packsConstantValuesIntoTheHeader() {
+        int[] values = new int[100];
+        Arrays.fill(values, -7);
+        int[] words = roundTrip(values);
+        assertEquals(2, words.length);
+        assertEquals(0, words[1], "bit width");
+    }
+
+    @Test
+    void roundTripsSingleValues() {
+        for (int value : new int[]{Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE}) {
+            assertEquals(2, roundTrip(value).length);
+        }
+        assertEquals(0, roundTrip().length);
+    }
+
+    @Test
+    void staysWithinMaxEncodedLength() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 2000; trial++) {
+            int[] values = new int[random.nextInt(300)];
+            int bound = 1 << random.nextInt(32);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = bound == Integer.MIN_VALUE ? random.nextInt() : random.nextInt(bound);
+            }
+            if (random.nextBoolean()) Arrays.sort(values);
+            roundTrip(values);
+        }
+    }
+
+    @Test
+    void packsDenseSortedValuesIntoFewBits() {
+        int[] values = new int[1024];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1_000_000 + 3 * i;
+        }
+        // Differences of 3 take two bits each
+        assertEquals(2 + (values.length - 1) * 2 / Integer.SIZE + 1, roundTrip(values).length);
+    }
+
+    @Test
+    void mergesCompressedRunsWithFramesLargerThanAPage() throws IOException {
+        SortConfig config = new SortConfig();
+        int fieldsPerPage = 16;
+        config.setPageSize(fieldsPerPage * Page.FIELD_SIZE);
+        config.setMemoryBudget(64L * config.getPageSize());
+        config.setReadAheadPages(2);
+        config.setRunCodec(codec);
+        config.setSpillDirectories(List.of(tempDir.toFile()));
+
+        // Differences spanning most of the int range need all 32 bits, so a frame of a full page of values takes
+        // more than a page; dense runs in between keep frames of every other size
+        Random random = new Random(11);
+        int[][] runs = new int[5][];
+        for (int r = 0; r < runs.length; r++) {
+            runs[r] = new int[50 + random.nextInt(200)];
+            for (int i = 0; i < runs[r].length; i++) {
+                runs[r][i] = r % 2 == 0 ? random.nextInt() : random.nextInt(100);
+            }
+            runs[r][0] = Integer.MIN_VALUE;
+            runs[r][runs[r].length - 1] = Integer.MAX_VALUE;
+            Arrays.sort(runs[r]);
+        }
+        int[] expected = Arrays.stream(runs).flatMapToInt(Arrays::stream).sorted().toArray();
+
+        for (boolean useOffsetValueCodes : new boolean[]{false, true}) {
+            ExternalSort externalSort = new ExternalSort(config);
+            externalSort.setMerger(new LoserTreeMerger(useOffsetValueCodes));
+            try {
+                List<Run> compressed = new ArrayList<>();
+                for (int[] values : runs) {
+                    Run run = new Run(externalSort, codec);
+                    for (int value : values) {
+                        run.addField(value);
+                    }
+                    run.flush();
+                    run.close();
+                    assertEquals(values.length, run.numFields());
+                    compressed.add(run);
+                }
+                assertTrue(compressed.get(0).getFile().length() > (long) runs[0].length * Page.FIELD_SIZE,
+                        "frames of wide differences should take more than a page each");
+
+                List<Integer> output = new ArrayList<>();
+                externalSort.mergeRuns(compressed, SortSink.of(output::add));
+                assertArrayEquals(expected, output.stream().mapToInt(Integer::intValue).toArray(),
+                        "offsetValueCodes=" + useOffsetValueCodes);
+            } finally {
+                externalSort.getBufferPool().close();
+                externalSort.getSpillManager().deleteAll();
+            }
+        }
+    }
+
+    /**
+     * Encodes and decodes {@code values} with arrays of exactly the promised size and returns the words.
+     */
+    private int[] roundTrip(int... values) {
+        int[] words = new int[codec.maxEncodedLength(values.length)];
+        int length = codec.encode(values, values.length, words);
+        assertTrue(length <= words.length, "encoded length " + length + " beyond " + words.length);
+
+        int[] decoded = new int[values.length];
+        codec.decode(Arrays.copyOf(words, length), length, values.length, decoded);
+        assertArrayEquals(values, decoded);
+        return Arrays.copyOf(words, length);
+    }
+}
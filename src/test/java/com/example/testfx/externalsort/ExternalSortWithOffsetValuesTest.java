@@ -0,0 +1,145 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExternalSortWithOffsetValuesTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File input;
+    private File stateDirectory;
+    private final List<Integer> values = new ArrayList<>();
+
+    @BeforeEach
+    void createInput() throws IOException {
+        File inputDirectory = tempDir.resolve("input").toFile();
+        inputDirectory.mkdirs();
+        input = new File(inputDirectory, "values.txt");
+        input.createNewFile();
+        stateDirectory = tempDir.resolve("spill").toFile();
+    }
+
+    private void append(int[] newValues) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int value : newValues) {
+            values.add(value);
+            text.append(value).append('\n');
+        }
+        Files.writeString(input.toPath(), text, StandardOpenOption.APPEND);
+    }
+
+    private ExternalSortWithOffsetValues sorter() {
+        SortConfig config = new SortConfig(64 * 1024, 256, 8);
+        config.setSpillDirectories(List.of(stateDirectory));
+        ExternalSortWithOffsetValues sorter = new ExternalSortWithOffsetValues(config);
+        sorter.setInputFilename(input.getPath());
+        return sorter;
+    }
+
+    /**
+     * Sorts incrementally, checks the output against the input and returns the number of reused rows.
+     */
+    private long sortIncrementally(ExternalSortWithOffsetValues sorter) throws IOException {
+        List<Integer> output = new ArrayList<>();
+        long reused = sorter.sortIncrementally(output::add);
+        int[] expected = TestRuns.sorted(values.stream().mapToInt(Integer::intValue).toArray());
+        assertArrayEquals(expected, output.stream().mapToInt(Integer::intValue).toArray());
+        assertArrayEquals(expected, TestRuns.readBinary(SortIndex.outputFor(input, stateDirectory)));
+        return reused;
+    }
+
+    @Test
+    void keepsItsFilesOutOfTheInputDirectory() throws IOException {
+        append(TestRuns.random(new Random(1), 2000));
+        sortIncrementally(sorter());
+
+        assertArrayEquals(new String[]{input.getName()}, input.getParentFile().list());
+        assertTrue(SortIndex.fileFor(input, stateDirectory).isFile());
+    }
+
+    @Test
+    void reusesEverythingForAnUnchangedInput() throws IOException {
+        append(TestRuns.random(new Random(2), 3000));
+        assertEquals(0, sortIncrementally(sorter()));
+
+        ExternalSortWithOffsetValues sorter = sorter();
+        assertEquals(3000, sortIncrementally(sorter));
+        assertEquals(0, sorter.getStats().getComparisons());
+        assertEquals(3000, sortIncrementally(sorter()));
+    }
+
+    @Test
+    void appendsATailOfLargerValuesWithoutMerging() throws IOException {
+        append(IntStream.range(0, 3000).map(i -> 2 * i).toArray());
+        sortIncrementally(sorter());
+
+        ExternalSortWithOffsetValues sorter = sorter();
+        append(IntStream.range(0, 500).map(i -> 10000 - 3 * i).toArray());
+        assertEquals(3000, sortIncrementally(sorter));
+        assertEquals(0, sorter.getStats().getComparisons());
+
+        // The summary of the appended output still indexes both parts
+        RunSummary summary = RunSummary.load(RunSummary.fileFor(SortIndex.outputFor(input, stateDirectory)));
+        assertEquals(3500, summary.getNumFields());
+        assertEquals(10000, summary.getMax());
+        assertEquals(summary.getNumPages(), summary.getIndexSize());
+    }
+
+    @Test
+    void mergesAnOverlappingTailWithThePreviousOutput() throws IOException {
+        Random random = new Random(3);
+        append(TestRuns.random(random, 3000));
+        sortIncrementally(sorter());
+
+        append(TestRuns.random(random, 700));
+        assertEquals(3000, sortIncrementally(sorter()));
+        append(TestRuns.random(random, 300));
+        assertEquals(3700, sortIncrementally(sorter()));
+    }
+
+    @Test
+    void sortsEverythingAgainWhenTheSortedPrefixChanged() throws IOException {
+        append(IntStream.range(0, 1000).map(i -> 1000 - i).toArray());
+        sortIncrementally(sorter());
+
+        // Same length, different first line: only the checksum tells
+        byte[] text = Files.readAllBytes(input.toPath());
+        text[0] = '2';
+        Files.write(input.toPath(), text);
+        values.set(0, 2000);
+        append(new int[]{5, 6});
+        assertEquals(0, sortIncrementally(sorter()));
+        assertEquals(1002, sortIncrementally(sorter()));
+    }
+
+    @Test
+    void ignoresAnIndexInTheOldFormat() throws IOException {
+        append(TestRuns.random(new Random(4), 1000));
+        File indexFile = SortIndex.fileFor(input, stateDirectory);
+        stateDirectory.mkdirs();
+        Files.writeString(indexFile.toPath(), "1000\n", StandardCharsets.UTF_8);
+        assertNull(SortIndex.load(indexFile));
+
+        assertEquals(0, sortIncrementally(sorter()));
+        assertEquals(1000, sortIncrementally(sorter()));
+    }
+}
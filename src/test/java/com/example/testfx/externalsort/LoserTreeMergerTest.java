@@ -0,0 +1,122 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class LoserTreeMergerTest {
+    /** Pages of a few values, so that runs span several of them. */
+    private static final int PAGE_SIZE = 8 * Page.FIELD_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void mergesRandomRunsLikeArraysSort() throws IOException {
+        Random random = new Random(42);
+        for (int k = 1; k <= 17; k++) {
+            for (int trial = 0; trial < 4; trial++) {
+                int[][] runs = new int[k][];
+                for (int r = 0; r < k; r++) {
+                    runs[r] = randomRun(random, random.nextInt(100));
+                }
+                assertMergesLikeArraysSort(runs, "k=" + k + " trial=" + trial);
+            }
+        }
+    }
+
+    @Test
+    void breaksTiesBetweenEqualCodes() throws IOException {
+        // Every row equals its predecessor and the rows of the other inputs, so all codes are equal
+        for (int k = 2; k <= 9; k++) {
+            int[][] runs = new int[k][];
+            for (int r = 0; r < k; r++) {
+                runs[r] = new int[20 + r];
+                Arrays.fill(runs[r], 7);
+            }
+            assertMergesLikeArraysSort(runs, "k=" + k);
+        }
+        assertMergesLikeArraysSort(new int[][]{{1, 1, 2, 2}, {1, 2, 2, 3}, {1, 1, 1, 3}}, "duplicates");
+    }
+
+    @Test
+    void handlesEmptyAndExhaustedInputs() throws IOException {
+        assertMergesLikeArraysSort(new int[][]{{}, {}, {}}, "all empty");
+        assertMergesLikeArraysSort(new int[][]{{}, {3}, {}, {1, 2, 4, 5, 6, 7, 8, 9, 10, 11}, {}}, "some empty");
+        assertMergesLikeArraysSort(new int[][]{{Integer.MIN_VALUE}, {0, 1}, {Integer.MAX_VALUE}}, "one row each");
+    }
+
+    @Test
+    void mergesExtremeValues() throws IOException {
+        int min = Integer.MIN_VALUE;
+        int max = Integer.MAX_VALUE;
+        assertMergesLikeArraysSort(new int[][]{
+                {min, min, -1, 0, max},
+                {min, max, max},
+                {min + 1, max - 1},
+                {-1, 0, 1},
+                {max}
+        }, "extremes");
+    }
+
+    private void assertMergesLikeArraysSort(int[][] runs, String what) throws IOException {
+        int[] expected = Arrays.stream(runs).flatMapToInt(Arrays::stream).sorted().toArray();
+        for (boolean useOffsetValueCodes : new boolean[]{false, true}) {
+            assertArrayEquals(expected, merge(new LoserTreeMerger(useOffsetValueCodes), runs),
+                    what + " offsetValueCodes=" + useOffsetValueCodes);
+        }
+    }
+
+    private int[] merge(Merger merger, int[][] runs) throws IOException {
+        List<Integer> output = new ArrayList<>();
+        List<RunIterator> inputs = new ArrayList<>();
+        try (BufferPool bufferPool = new BufferPool(runs.length + 1, PAGE_SIZE, 1, SortConfig.IoStrategy.HEAP)) {
+            for (int r = 0; r < runs.length; r++) {
+                RunIterator input = new RunIterator(writeRun(runs[r]), 0, runs[r].length, r, 1, bufferPool);
+                input.open();
+                inputs.add(input);
+            }
+            merger.merge(inputs, SortSink.of(output::add));
+            for (RunIterator input : inputs) {
+                input.close();
+            }
+        }
+        return output.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * A sorted run drawn from a small range, so that it has duplicates, with the extreme values mixed in.
+     */
+    private static int[] randomRun(Random random, int length) {
+        return IntStream.range(0, length)
+                .map(i -> switch (random.nextInt(20)) {
+                    case 0 -> Integer.MIN_VALUE;
+                    case 1 -> Integer.MAX_VALUE;
+                    default -> random.nextInt(50) - 25;
+                })
+                .sorted()
+                .toArray();
+    }
+
+    private File writeRun(int[] values) throws IOException {
+        File file = File.createTempFile("run", ".bin", tempDir.toFile());
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+        return file;
+    }
+}
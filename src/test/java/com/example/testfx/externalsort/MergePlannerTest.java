@@ -0,0 +1,175 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MergePlannerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ExternalSort sorter;
+    private MergePlanner planner;
+
+    @BeforeEach
+    void createSorter() {
+        sorter = TestRuns.sorter(new SortConfig(64 * 1024, 64, 16), tempDir);
+        planner = new MergePlanner(sorter);
+    }
+
+    @AfterEach
+    void releaseSorter() throws IOException {
+        TestRuns.release(sorter);
+    }
+
+    private static int[] range(int from, int to) {
+        return IntStream.range(from, to).toArray();
+    }
+
+    @Test
+    void concatenatesDisjointRunsGivenInAnyOrder() throws IOException {
+        List<Run> runs = new ArrayList<>();
+        for (int r = 0; r < 20; r++) {
+            runs.add(TestRuns.writeRun(sorter, range(100 * r, 100 * r + 30 + r)));
+        }
+        // An empty run is dropped, and a run starting at the previous one's largest value still follows on
+        runs.add(TestRuns.writeRun(sorter, new int[0]));
+        runs.add(TestRuns.writeRun(sorter, new int[]{1949, 1949, 5000}));
+        int[] expected = TestRuns.sorted(TestRuns.read(runs));
+        List<Run> sources = runs.subList(0, 20).stream().toList();
+        Collections.shuffle(runs, new Random(17));
+
+        List<Run> planned = planner.concatenateDisjoint(runs);
+
+        assertEquals(1, planned.size());
+        assertArrayEquals(expected, TestRuns.read(planned.get(0)));
+        RunSummary summary = planned.get(0).summary();
+        assertEquals(expected.length, summary.getNumFields());
+        assertEquals(5000, summary.getMax());
+        assertTrue(summary.getIndexSize() > 20, "the parts' indexes should carry over");
+        for (Run source : sources) {
+            assertFalse(source.getFile().exists(), "concatenated sources are deleted");
+        }
+    }
+
+    @Test
+    void chainsEachRunBehindTheClosestTailBelowIt() throws IOException {
+        // Ten runs per block all overlap each other, blocks follow on from each other: ten chains of 30 runs
+        Random random = new Random(3);
+        List<Run> runs = new ArrayList<>();
+        for (int block = 0; block < 30; block++) {
+            for (int r = 0; r < 10; r++) {
+                int low = 100 * block + random.nextInt(10);
+                runs.add(TestRuns.writeRun(sorter, new int[]{low, low + 80 + random.nextInt(10)}));
+            }
+        }
+        int[] expected = TestRuns.sorted(TestRuns.read(runs));
+        Collections.shuffle(runs, random);
+
+        List<Run> planned = planner.concatenateDisjoint(runs);
+
+        assertEquals(10, planned.size());
+        for (Run run : planned) {
+            int[] values = TestRuns.read(run);
+            assertEquals(60, values.length);
+            assertTrue(TestRuns.isSorted(values));
+        }
+        assertArrayEquals(expected, TestRuns.sorted(TestRuns.read(planned)));
+    }
+
+    @Test
+    void onlyChainsRunsStoredAlike() throws IOException {
+        RunCodec codec = new DeltaForCodec();
+        Run compressed = new Run(sorter, codec);
+        for (int value : range(100, 200)) {
+            compressed.addField(value);
+        }
+        compressed.flush();
+        compressed.close();
+        Run plain = TestRuns.writeRun(sorter, range(0, 100));
+        Run laterPlain = TestRuns.writeRun(sorter, range(200, 300));
+
+        List<Run> planned = planner.concatenateDisjoint(List.of(laterPlain, compressed, plain));
+
+        assertEquals(2, planned.size());
+        assertNull(planned.get(0).getCodec());
+        assertArrayEquals(TestRuns.sorted(IntStream.concat(IntStream.range(0, 100), IntStream.range(200, 300))
+                .toArray()), TestRuns.read(planned.get(0)));
+        assertEquals(codec, planned.get(1).getCodec());
+        assertArrayEquals(range(100, 200), TestRuns.read(planned.get(1)));
+    }
+
+    @Test
+    void mergesTheSmallestRunsFirstAndKeepsLaterMergesAtFullFanIn() throws IOException {
+        ExternalSort narrow = TestRuns.sorter(new SortConfig(64 * 1024, 64, 4), tempDir);
+        try {
+            int[] lengths = {50, 10, 90, 20, 70, 30, 80, 40, 60};
+            List<Run> runs = new ArrayList<>();
+            Random random = new Random(5);
+            for (int length : lengths) {
+                runs.add(TestRuns.writeRun(narrow, TestRuns.sorted(TestRuns.random(random, length))));
+            }
+            int[] expected = TestRuns.sorted(TestRuns.read(runs));
+
+            List<List<Long>> mergedLengths = new ArrayList<>();
+            List<Run> remaining = new MergePlanner(narrow).mergeDown(runs, 4, inputs -> {
+                mergedLengths.add(inputs.stream().map(Run::numFields).sorted().toList());
+                return TestRuns.writeRun(narrow, TestRuns.sorted(TestRuns.read(inputs)));
+            });
+
+            // 9 runs need a first merge of 3 for a second merge of 4 to leave 4 runs for a final merge of 4
+            assertEquals(List.of(List.of(10L, 20L, 30L), List.of(40L, 50L, 60L, 60L)), mergedLengths);
+            assertArrayEquals(new int[]{3, 4}, narrow.getStats().getMergeFanIns());
+            assertEquals(2, narrow.getStats().getMerges());
+            assertEquals((60 + 210) * Page.FIELD_SIZE, narrow.getStats().getPlannedMergeBytes());
+            assertEquals(List.of(70L, 80L, 90L, 210L),
+                    remaining.stream().map(Run::numFields).sorted().toList());
+            assertArrayEquals(expected, TestRuns.sorted(TestRuns.read(remaining)));
+        } finally {
+            TestRuns.release(narrow);
+        }
+    }
+
+    @Test
+    void fillsEveryMergeButTheFirstForAnyNumberOfRuns() throws IOException {
+        ExternalSort narrow = TestRuns.sorter(new SortConfig(64 * 1024, 64, 5), tempDir);
+        try {
+            for (int numRuns = 1; numRuns <= 30; numRuns++) {
+                List<Run> runs = new ArrayList<>();
+                for (int r = 0; r < numRuns; r++) {
+                    runs.add(TestRuns.writeRun(narrow, range(0, 1 + r % 7)));
+                }
+                narrow.getStats().reset();
+
+                List<Run> remaining = new MergePlanner(narrow).mergeDown(runs, 5, inputs ->
+                        TestRuns.writeRun(narrow, TestRuns.sorted(TestRuns.read(inputs))));
+
+                int[] widths = narrow.getStats().getMergeFanIns();
+                assertEquals(Math.min(numRuns, 5), remaining.size(), numRuns + " runs");
+                for (int i = 0; i < widths.length; i++) {
+                    assertTrue(i == 0 ? widths[i] >= 2 && widths[i] <= 5 : widths[i] == 5,
+                            numRuns + " runs: merge widths " + Arrays.toString(widths));
+                }
+            }
+        } finally {
+            TestRuns.release(narrow);
+        }
+    }
+}
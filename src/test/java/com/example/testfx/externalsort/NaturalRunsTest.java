@@ -0,0 +1,116 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NaturalRunsTest {
+    private static final int PAGE_SIZE = 64;
+    private static final int FIELDS_PER_PAGE = PAGE_SIZE / Page.FIELD_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    private ExternalSort sorter;
+
+    @BeforeEach
+    void createSorter() {
+        sorter = TestRuns.sorter(new SortConfig(64 * 1024, PAGE_SIZE, 16), tempDir);
+    }
+
+    @AfterEach
+    void releaseSorter() throws IOException {
+        TestRuns.release(sorter);
+    }
+
+    private List<Run> generate(int minRunLength, int[] input) throws IOException {
+        NaturalRuns generator = new NaturalRuns(sorter, sorter.newRunGenerator(0), minRunLength, 0);
+        for (int value : input) {
+            generator.addField(value);
+        }
+        generator.flush();
+        return generator.runs();
+    }
+
+    /**
+     * Checks that the run's summary indexes the start of every page, as one recorded while writing would.
+     */
+    private static void assertIndexesEveryPage(int[] values, Run run) throws IOException {
+        RunSummary summary = run.summary();
+        assertEquals(values.length, summary.getNumFields());
+        assertEquals(values[0], summary.getMin());
+        assertEquals(values[values.length - 1], summary.getMax());
+        assertEquals(summary.getNumPages(), summary.getIndexSize());
+        for (int entry = 0; entry < summary.getIndexSize(); entry++) {
+            assertEquals((long) entry * FIELDS_PER_PAGE, summary.indexPosition(entry));
+            assertEquals(values[entry * FIELDS_PER_PAGE], summary.indexKey(entry), "key of page " + entry);
+        }
+    }
+
+    @Test
+    void keepsAnAscendingStretchAsOneRun() throws IOException {
+        int[] input = IntStream.range(0, 10 * FIELDS_PER_PAGE + 5).map(i -> 3 * i - 100).toArray();
+        List<Run> runs = generate(FIELDS_PER_PAGE, input);
+
+        assertEquals(1, runs.size());
+        assertArrayEquals(input, TestRuns.read(runs.get(0)));
+        assertIndexesEveryPage(input, runs.get(0));
+    }
+
+    @Test
+    void reversesStrictlyDescendingRunsAndRebuildsTheirIndex() throws IOException {
+        for (int length : new int[]{2, 3, FIELDS_PER_PAGE, FIELDS_PER_PAGE + 1, 2 * FIELDS_PER_PAGE + 1,
+                5 * FIELDS_PER_PAGE + 7, 6 * FIELDS_PER_PAGE}) {
+            int[] input = IntStream.range(0, length).map(i -> 1000 - 7 * i).toArray();
+            List<Run> runs = generate(2, input);
+
+            assertEquals(1, runs.size(), "runs for " + length + " values");
+            int[] expected = TestRuns.sorted(input);
+            assertArrayEquals(expected, TestRuns.read(runs.get(0)), "run of " + length + " values");
+            assertIndexesEveryPage(expected, runs.get(0));
+        }
+    }
+
+    @Test
+    void keepsEqualKeysInAscendingRunsOnly() throws IOException {
+        int[] equal = new int[3 * FIELDS_PER_PAGE];
+        List<Run> runs = generate(FIELDS_PER_PAGE, equal);
+        assertEquals(1, runs.size());
+        assertArrayEquals(equal, TestRuns.read(runs.get(0)));
+
+        // Every value twice, in descending order: each pair is an ascending stretch of two, and a descending run
+        // never takes in the second copy
+        int[] pairs = IntStream.range(0, 4 * FIELDS_PER_PAGE).map(i -> -(i / 2)).toArray();
+        runs = generate(2, pairs);
+        assertEquals(pairs.length / 2, runs.size());
+        for (Run run : runs) {
+            int[] values = TestRuns.read(run);
+            assertEquals(2, values.length);
+            assertEquals(values[0], values[1]);
+        }
+    }
+
+    @Test
+    void passesShortStretchesOnToTheWrappedGenerator() throws IOException {
+        int[] input = new int[4 * FIELDS_PER_PAGE];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = i % 3 == 0 ? i : -i;
+        }
+        List<Run> runs = generate(FIELDS_PER_PAGE, input);
+
+        for (Run run : runs) {
+            assertTrue(TestRuns.isSorted(TestRuns.read(run)));
+        }
+        assertArrayEquals(TestRuns.sorted(input), TestRuns.sorted(TestRuns.read(runs)));
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelMergeTest {
+    private static final int PAGE_SIZE = 16 * Page.FIELD_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    private ExternalSort sorter;
+
+    @BeforeEach
+    void createSorter() {
+        SortConfig config = new SortConfig(64 * PAGE_SIZE, PAGE_SIZE, 16);
+        config.setParallelism(4);
+        config.setParallelMerge(true);
+        sorter = TestRuns.sorter(config, tempDir);
+    }
+
+    @AfterEach
+    void releaseSorter() throws IOException {
+        TestRuns.release(sorter);
+    }
+
+    @Test
+    void keepsDuplicatesThatStraddleACutInOneRange() throws IOException {
+        // Most keys are equal, so the splitters are too and every cut falls within a run of duplicates
+        Random random = new Random(8);
+        int[][] runs = new int[5][];
+        for (int r = 0; r < runs.length; r++) {
+            runs[r] = random.ints(300 + 50 * r, 0, 10).map(v -> v < 8 ? 5 : v).sorted().toArray();
+        }
+        assertMergesEverywhere(runs);
+
+        int[][] allEqual = new int[4][];
+        for (int r = 0; r < allEqual.length; r++) {
+            allEqual[r] = new int[200];
+            Arrays.fill(allEqual[r], -3);
+        }
+        assertMergesEverywhere(allEqual);
+    }
+
+    @Test
+    void mergesSkewedRuns() throws IOException {
+        Random random = new Random(9);
+        // One long run among short ones, runs over disjoint key ranges and runs at the ends of the int range
+        assertMergesEverywhere(new int[][]{
+                random.ints(3000).sorted().toArray(),
+                random.ints(3).sorted().toArray(),
+                random.ints(40).sorted().toArray(),
+                {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE}});
+        assertMergesEverywhere(new int[][]{
+                IntStream.range(0, 800).toArray(),
+                IntStream.range(800, 1000).toArray(),
+                IntStream.range(-1000, -900).toArray()});
+        assertMergesEverywhere(new int[][]{
+                IntStream.range(0, 1000).map(i -> i < 990 ? Integer.MIN_VALUE : i).toArray(),
+                IntStream.range(0, 1000).map(i -> i < 10 ? i : Integer.MAX_VALUE).toArray()});
+    }
+
+    @Test
+    void keepsEveryRangeWithinItsShareOfTheBuffers() {
+        for (int numBuffers = SortConfig.MIN_BUFFERS; numBuffers <= 80; numBuffers++) {
+            for (int readAhead = 1; readAhead <= 4; readAhead++) {
+                for (int writeBehind = 1; writeBehind <= 3; writeBehind++) {
+                    SortConfig config = new SortConfig((long) numBuffers * PAGE_SIZE, PAGE_SIZE, 64);
+                    config.setParallelism(8);
+                    config.setReadAheadPages(readAhead);
+                    config.setWriteBehindPages(writeBehind);
+                    int inputBuffers = config.getNumBuffers() - config.getWriteBehindPages();
+
+                    for (int k = 2; k <= config.getFanIn(); k++) {
+                        int numRanges = ParallelMerge.numRanges(config, k, Long.MAX_VALUE / 2);
+                        if (numRanges < 2) continue;
+                        int buffersPerRange = ParallelMerge.buffersPerRange(config, numRanges);
+                        int pagesPerInput = ParallelMerge.readAheadPages(config, k, buffersPerRange);
+                        String what = "buffers=" + numBuffers + " readAhead=" + readAhead + " writeBehind="
+                                + writeBehind + " k=" + k;
+                        assertTrue(numRanges * buffersPerRange <= inputBuffers, what);
+                        assertTrue(k * pagesPerInput + 1 <= buffersPerRange, what);
+                        assertTrue(pagesPerInput >= 1 && pagesPerInput <= config.getReadAheadPages(), what);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void declinesMergesTooSmallToSplit() throws IOException {
+        Run a = TestRuns.writeRun(sorter, new int[]{1, 2, 3});
+        Run b = TestRuns.writeRun(sorter, new int[]{2, 3, 4});
+        assertFalse(new ParallelMerge(sorter).merge(List.of(a, b), SortSink.of(v -> { })));
+        assertFalse(new ParallelMerge(sorter).merge(List.of(TestRuns.writeRun(sorter, IntStream.range(0, 500)
+                .toArray())), SortSink.of(v -> { })));
+    }
+
+    /**
+     * Merges the runs in parallel into a run, into a file channel behind a prefix, into a consumer and into a
+     * stream, and checks that every output holds them sorted.
+     */
+    private void assertMergesEverywhere(int[][] values) throws IOException {
+        int[] expected = Arrays.stream(values).flatMapToInt(Arrays::stream).sorted().toArray();
+        List<Run> runs = new ArrayList<>();
+        for (int[] run : values) {
+            runs.add(TestRuns.writeRun(sorter, run));
+        }
+        ParallelMerge parallelMerge = new ParallelMerge(sorter);
+        BufferPool bufferPool = sorter.getBufferPool();
+        long spillBytes = sorter.getSpillManager().getBytesInUse();
+
+        Run run = new Run(sorter);
+        assertTrue(parallelMerge.merge(runs, run));
+        assertArrayEquals(expected, TestRuns.read(run), "run");
+        assertEquals(expected.length, run.summary().getNumFields());
+        sorter.deleteRuns(List.of(run));
+
+        // The ranges write behind fields that passed through the sink before
+        File file = tempDir.resolve("merged.bin").toFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ChannelSink sink = new ChannelSink(channel, bufferPool.getPage(bufferPool.getOutputBufferIndex()),
+                    new RunSummary(PAGE_SIZE));
+            sink.addField(Integer.MIN_VALUE);
+            assertTrue(parallelMerge.merge(runs, sink));
+            sink.flush();
+            assertEquals(expected.length + 1, sink.getSummary().getNumFields());
+        }
+        int[] prefixed = TestRuns.readBinary(file);
+        assertEquals(Integer.MIN_VALUE, prefixed[0]);
+        assertArrayEquals(expected, Arrays.copyOfRange(prefixed, 1, prefixed.length), "file channel");
+
+        // Sinks that only take fields in order get all but the first range through a spill file
+        List<Integer> consumed = new ArrayList<>();
+        assertTrue(parallelMerge.merge(runs, SortSink.of(consumed::add)));
+        assertArrayEquals(expected, consumed.stream().mapToInt(Integer::intValue).toArray(), "consumer");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ChannelSink streamSink = new ChannelSink(Channels.newChannel(bytes),
+                bufferPool.getPage(bufferPool.getOutputBufferIndex()));
+        assertTrue(parallelMerge.merge(runs, streamSink));
+        streamSink.flush();
+        assertArrayEquals(expected, readInts(bytes.toByteArray()), "stream");
+
+        assertEquals(spillBytes, sorter.getSpillManager().getBytesInUse(), "spill files left behind");
+        sorter.deleteRuns(runs);
+    }
+
+    private static int[] readInts(byte[] bytes) throws IOException {
+        int[] values = new int[bytes.length / Page.FIELD_SIZE];
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+}
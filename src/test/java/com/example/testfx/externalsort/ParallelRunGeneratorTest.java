@@ -0,0 +1,118 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelRunGeneratorTest {
+    private static final int PAGE_SIZE = 16 * Page.FIELD_SIZE;
+    private static final int PARALLELISM = 4;
+
+    @TempDir
+    Path tempDir;
+
+    private ExternalSort sorter;
+    private int chunkFields;
+
+    @BeforeEach
+    void createSorter() {
+        SortConfig config = new SortConfig(64 * PAGE_SIZE, PAGE_SIZE, 16);
+        config.setParallelism(PARALLELISM);
+        sorter = TestRuns.sorter(config, tempDir);
+        chunkFields = ParallelRunGenerator.pagesPerChunk(config) * PAGE_SIZE / Page.FIELD_SIZE;
+    }
+
+    @AfterEach
+    void releaseSorter() throws IOException {
+        TestRuns.release(sorter);
+    }
+
+    @Test
+    void sortsEveryChunkOfAFileIntoARun() throws IOException {
+        Random random = new Random(5);
+        for (int length : new int[]{1, chunkFields - 1, chunkFields, 3 * chunkFields + 1, 40 * chunkFields + 17}) {
+            int[] input = random.ints(length, -1000, 1000).toArray();
+            File file = TestRuns.writeBinary(tempDir, input);
+            List<Run> runs = new ParallelRunGenerator(sorter).generateRuns(file, 0,
+                    sorter.getBufferPool().numPages(file));
+
+            assertEquals((length + chunkFields - 1) / chunkFields, runs.size(), "runs of " + length);
+            for (int r = 0; r < runs.size(); r++) {
+                int[] run = TestRuns.read(runs.get(r));
+                assertTrue(TestRuns.isSorted(run), "run " + r + " of " + length + " not sorted");
+                if (r < runs.size() - 1) assertEquals(chunkFields, run.length);
+            }
+            assertArrayEquals(TestRuns.sorted(input), TestRuns.sorted(TestRuns.read(runs)), "length " + length);
+            sorter.deleteRuns(runs);
+        }
+    }
+
+    @Test
+    void givesNoRunsForPagesWithoutFields() throws IOException {
+        File empty = TestRuns.writeBinary(tempDir, new int[0]);
+        assertEquals(0, new ParallelRunGenerator(sorter).generateRuns(empty, 0, 0).size());
+
+        // Pages past the end of the file read as empty
+        int[] input = TestRuns.random(new Random(6), chunkFields + 3);
+        File file = TestRuns.writeBinary(tempDir, input);
+        List<Run> runs = new ParallelRunGenerator(sorter).generateRuns(file, 0,
+                sorter.getBufferPool().numPages(file) + 5 * chunkFields);
+        assertEquals(2, runs.size());
+        assertArrayEquals(TestRuns.sorted(input), TestRuns.sorted(TestRuns.read(runs)));
+
+        RunGenerator chunkSorter = new ParallelRunGenerator(sorter).newChunkSorter();
+        chunkSorter.flush();
+        assertEquals(0, chunkSorter.runs().size());
+    }
+
+    @Test
+    void sortsValuesPushedByConcurrentProducers() throws Exception {
+        Random random = new Random(7);
+        int[][] inputs = new int[PARALLELISM][];
+        for (int i = 0; i < PARALLELISM; i++) {
+            inputs[i] = TestRuns.random(random, 5 * chunkFields + i * 11);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM);
+        try {
+            @SuppressWarnings("unchecked")
+            Future<List<Run>>[] results = (Future<List<Run>>[]) new Future<?>[PARALLELISM];
+            for (int i = 0; i < PARALLELISM; i++) {
+                int[] input = inputs[i];
+                results[i] = executor.submit(() -> {
+                    RunGenerator chunkSorter = new ParallelRunGenerator(sorter).newChunkSorter();
+                    for (int value : input) {
+                        chunkSorter.addField(value);
+                    }
+                    chunkSorter.flush();
+                    return chunkSorter.runs();
+                });
+            }
+
+            for (int i = 0; i < PARALLELISM; i++) {
+                List<Run> runs = results[i].get();
+                assertEquals((inputs[i].length + chunkFields - 1) / chunkFields, runs.size());
+                for (Run run : runs) {
+                    assertTrue(TestRuns.isSorted(TestRuns.read(run)));
+                }
+                assertArrayEquals(TestRuns.sorted(inputs[i]), TestRuns.sorted(TestRuns.read(runs)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordSortTest {
+
+    @TempDir
+    Path tempDir;
+
+    /** Small enough for a few thousand rows to make dozens of runs and several intermediate merges. */
+    private SortConfig smallConfig() {
+        SortConfig config = new SortConfig(16 * 1024, 1024, 4);
+        config.setReadAheadPages(1);
+        config.setWriteBehindPages(1);
+        config.setSpillDirectories(List.of(tempDir.toFile()));
+        return config;
+    }
+
+    private Path write(List<String> lines) throws IOException {
+        Path input = Files.createTempFile(tempDir, "input", ".csv");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(input, StandardCharsets.UTF_8))) {
+            lines.forEach(writer::println);
+        }
+        return input;
+    }
+
+    @Test
+    void keepsTheHeaderOnTopAndEqualKeysInInputOrder() throws IOException {
+        Random random = new Random(14);
+        List<String> lines = new ArrayList<>();
+        lines.add("name,row");
+        for (int row = 0; row < 5000; row++) {
+            lines.add("key" + random.nextInt(20) + "," + row);
+        }
+
+        RecordLayout layout = RecordLayout.delimited(',', 0, KeyType.UTF8).withHeader();
+        List<String> sorted = new RecordSort(write(lines).toString(), layout, smallConfig()).sort();
+
+        assertEquals(lines.size(), sorted.size());
+        assertEquals("name,row", sorted.get(0));
+        for (int i = 2; i < sorted.size(); i++) {
+            String[] previous = sorted.get(i - 1).split(",");
+            String[] current = sorted.get(i).split(",");
+            int order = previous[0].compareTo(current[0]);
+            assertTrue(order < 0 || order == 0 && Integer.parseInt(previous[1]) < Integer.parseInt(current[1]),
+                    "rows " + (i - 1) + " and " + i + " are out of order");
+        }
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(0, files.filter(p -> !p.toString().endsWith(".csv")).count(), "run files left behind");
+        }
+    }
+
+    @Test
+    void sortsSortedAndReversedInputSpreadOverManyRuns() throws IOException {
+        List<String> ascending = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            ascending.add(Integer.toString(i - 10000));
+        }
+        List<String> descending = new ArrayList<>(ascending);
+        Collections.reverse(descending);
+
+        for (List<String> lines : List.of(ascending, descending)) {
+            List<String> sorted = new RecordSort(write(lines).toString(), RecordLayout.lines(KeyType.INT),
+                    smallConfig()).sort();
+            assertEquals(ascending, sorted);
+        }
+    }
+
+    @Test
+    void normalizesDoublesParsedFromBytesLikeDoubleParseDouble() {
+        Random random = new Random(7);
+        List<String> values = new ArrayList<>(List.of("0", "-0", "+1", "1.", ".5", "-.5", " 2.50 ", "1e3", "1E-3",
+                "-2.5e+10", "9007199254740993", "0.1", "123456789012345678901234567890", "1e22", "1e23",
+                "4.9e-324", "1.7976931348623157e308", "1e400", "NaN", "-Infinity", "0x1p3", "1d"));
+        for (int i = 0; i < 2000; i++) {
+            values.add(Double.toString(Double.longBitsToDouble(random.nextLong())));
+            values.add(String.format(Locale.ROOT, "%.3f", (random.nextDouble() - 0.5) * 1e6));
+            values.add((random.nextInt(2000000) - 1000000) + "e" + (random.nextInt(60) - 30));
+        }
+
+        byte[] expected = new byte[Long.BYTES];
+        byte[] actual = new byte[Long.BYTES];
+        for (String value : values) {
+            long bits = Double.doubleToLongBits(Double.parseDouble(value.trim()));
+            long normalized = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+            for (int i = 0; i < Long.BYTES; i++) {
+                expected[i] = (byte) (normalized >>> ((Long.BYTES - 1 - i) * Byte.SIZE));
+            }
+
+            byte[] text = value.getBytes(StandardCharsets.ISO_8859_1);
+            assertEquals(Long.BYTES, KeyType.DOUBLE.normalize(text, 0, text.length, actual, 0));
+            assertArrayEquals(expected, actual, value);
+        }
+    }
+
+    @Test
+    void rejectsTextThatIsNotADouble() {
+        for (String value : List.of("", " ", ".", "-", "1e", "1e+", "1.2.3", "12a", "e5")) {
+            byte[] text = value.getBytes(StandardCharsets.ISO_8859_1);
+            assertThrows(NumberFormatException.class,
+                    () -> KeyType.DOUBLE.normalize(text, 0, text.length, new byte[Long.BYTES], 0), value);
+        }
+    }
+}
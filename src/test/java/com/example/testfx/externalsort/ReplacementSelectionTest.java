@@ -0,0 +1,97 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplacementSelectionTest {
+    private static final int CAPACITY = 500;
+
+    @TempDir
+    Path tempDir;
+
+    private ExternalSort sorter;
+
+    @BeforeEach
+    void createSorter() {
+        sorter = TestRuns.sorter(new SortConfig(64 * 1024, 64, 16), tempDir);
+    }
+
+    @AfterEach
+    void releaseSorter() throws IOException {
+        TestRuns.release(sorter);
+    }
+
+    @Test
+    void producesRunsOfAboutTwiceTheHeapOnRandomInput() throws IOException {
+        int[] input = TestRuns.random(new Random(1), 200 * CAPACITY);
+        List<Run> runs = generate(input);
+
+        // The last run only gets what is left over
+        long fieldsBeforeLast = input.length - runs.get(runs.size() - 1).numFields();
+        double averageLength = (double) fieldsBeforeLast / (runs.size() - 1);
+        assertTrue(averageLength > 1.8 * CAPACITY && averageLength < 2.2 * CAPACITY,
+                "average run length " + averageLength + " for a heap of " + CAPACITY);
+    }
+
+    @Test
+    void turnsSortedInputIntoOneRun() throws IOException {
+        int[] input = IntStream.range(0, 20 * CAPACITY).map(i -> i / 3 - 1000).toArray();
+        List<Run> runs = generate(input);
+        assertEquals(1, runs.size());
+        assertArrayEquals(input, TestRuns.read(runs.get(0)));
+    }
+
+    @Test
+    void cutsDescendingInputIntoRunsOfTheHeap() throws IOException {
+        int[] input = IntStream.range(0, 10 * CAPACITY).map(i -> -i).toArray();
+        List<Run> runs = generate(input);
+        assertEquals(10, runs.size());
+        for (Run run : runs) {
+            assertEquals(CAPACITY, run.numFields());
+        }
+    }
+
+    @Test
+    void outputsEverySortedRunOfTheInput() throws IOException {
+        Random random = new Random(2);
+        for (int length : new int[]{0, 1, CAPACITY - 1, CAPACITY, CAPACITY + 1, 7 * CAPACITY + 13}) {
+            int[] input = random.ints(length, -50, 50).toArray();
+            List<Run> runs = generate(input);
+            for (Run run : runs) {
+                assertTrue(TestRuns.isSorted(TestRuns.read(run)), "run of " + run.numFields() + " not sorted");
+            }
+            assertArrayEquals(TestRuns.sorted(input), TestRuns.sorted(TestRuns.read(runs)), "length " + length);
+        }
+    }
+
+    @Test
+    void readsPagesOfABinaryFile() throws IOException {
+        int[] input = TestRuns.random(new Random(3), 5 * CAPACITY + 7);
+        File file = TestRuns.writeBinary(tempDir, input);
+        List<Run> runs = new ReplacementSelection(sorter, CAPACITY)
+                .generateRuns(file, 0, sorter.getBufferPool().numPages(file));
+        assertArrayEquals(TestRuns.sorted(input), TestRuns.sorted(TestRuns.read(runs)));
+    }
+
+    private List<Run> generate(int[] input) throws IOException {
+        ReplacementSelection generator = new ReplacementSelection(sorter, CAPACITY);
+        for (int value : input) {
+            generator.addField(value);
+        }
+        generator.flush();
+        return generator.runs();
+    }
+}
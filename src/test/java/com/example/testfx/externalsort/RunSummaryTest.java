@@ -0,0 +1,173 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunSummaryTest {
+    private static final int PAGE_SIZE = 32;
+    private static final int FIELDS_PER_PAGE = PAGE_SIZE / Page.FIELD_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    private static RunSummary summarize(int[] values) {
+        RunSummary summary = new RunSummary(PAGE_SIZE);
+        for (int value : values) {
+            summary.add(value);
+        }
+        return summary;
+    }
+
+    /**
+     * Values with long stretches of equal keys, so that many pages start and end with the same key.
+     */
+    private static int[] withDuplicates(Random random, int length) {
+        int[] values = new int[length];
+        int value = -50;
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(12) == 0) value += 1 + random.nextInt(3);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    /**
+     * Position of the first value greater than {@code key} if {@code after}, else not less than it.
+     */
+    private static long position(int[] values, int key, boolean after) {
+        int i = 0;
+        while (i < values.length && (after ? values[i] <= key : values[i] < key)) i++;
+        return i;
+    }
+
+    private static void assertBrackets(int[] values, RunSummary summary) {
+        int min = values.length == 0 ? 0 : values[0];
+        int max = values.length == 0 ? 0 : values[values.length - 1];
+        for (int key = min - 3; key <= max + 3; key++) {
+            for (boolean after : new boolean[]{false, true}) {
+                long expected = position(values, key, after);
+                long from = summary.searchFrom(key, after);
+                long to = summary.searchTo(key, after);
+                String search = "key " + key + (after ? " after" : "");
+                assertTrue(from <= expected && expected <= to, search + ": " + expected + " not in [" + from
+                        + ", " + to + "]");
+                assertTrue(to - from <= FIELDS_PER_PAGE, search + ": searches more than a page");
+            }
+        }
+    }
+
+    @Test
+    void indexesTheStartOfEveryPage() {
+        int[] values = withDuplicates(new Random(1), 10 * FIELDS_PER_PAGE + 3);
+        RunSummary summary = summarize(values);
+
+        assertEquals(values.length, summary.getNumFields());
+        assertEquals(values[0], summary.getMin());
+        assertEquals(values[values.length - 1], summary.getMax());
+        assertEquals(11, summary.getNumPages());
+        assertEquals(11, summary.getIndexSize());
+        for (int entry = 0; entry < summary.getIndexSize(); entry++) {
+            assertEquals((long) entry * FIELDS_PER_PAGE, summary.indexPosition(entry));
+            assertEquals(values[entry * FIELDS_PER_PAGE], summary.indexKey(entry));
+        }
+    }
+
+    @Test
+    void narrowsSearchesDownToOnePage() {
+        Random random = new Random(2);
+        for (int length : new int[]{1, FIELDS_PER_PAGE, FIELDS_PER_PAGE + 1, 40 * FIELDS_PER_PAGE - 1}) {
+            int[] values = withDuplicates(random, length);
+            assertBrackets(values, summarize(values));
+        }
+
+        // With every key the same, the first value not less than it is the first of all and the first greater one
+        // lies past the last page
+        int[] equal = new int[5 * FIELDS_PER_PAGE];
+        RunSummary summary = summarize(equal);
+        assertEquals(0, summary.searchFrom(0, false));
+        assertEquals(0, summary.searchTo(0, false));
+        assertEquals(equal.length - FIELDS_PER_PAGE, summary.searchFrom(0, true));
+        assertEquals(equal.length, summary.searchTo(0, true));
+    }
+
+    @Test
+    void searchesAreBoundedByTheEndsOfTheRun() {
+        int[] values = withDuplicates(new Random(3), 7 * FIELDS_PER_PAGE);
+        RunSummary summary = summarize(values);
+
+        // Keys before the first page start at 0, keys after the last page end at the run's end
+        assertEquals(0, summary.searchFrom(Integer.MIN_VALUE, false));
+        assertEquals(0, summary.searchTo(Integer.MIN_VALUE, false));
+        assertEquals(6L * FIELDS_PER_PAGE, summary.searchFrom(Integer.MAX_VALUE, true));
+        assertEquals(values.length, summary.searchTo(Integer.MAX_VALUE, true));
+
+        // Without an index a search covers the whole run
+        RunSummary unindexed = RunSummary.of(PAGE_SIZE, values.length, values[0], values[values.length - 1]);
+        assertEquals(0, unindexed.getIndexSize());
+        assertEquals(0, unindexed.searchFrom(values[20], false));
+        assertEquals(values.length, unindexed.searchTo(values[20], false));
+    }
+
+    @Test
+    void concatenatesIndexesAtTheirNewPositions() {
+        Random random = new Random(4);
+        int[] first = withDuplicates(random, 3 * FIELDS_PER_PAGE + 5);
+        int[] second = withDuplicates(random, 2 * FIELDS_PER_PAGE);
+        int offset = first[first.length - 1] - second[0];
+        int[] joined = new int[first.length + second.length];
+        System.arraycopy(first, 0, joined, 0, first.length);
+        for (int i = 0; i < second.length; i++) {
+            second[i] += offset;
+            joined[first.length + i] = second[i];
+        }
+
+        RunSummary summary = RunSummary.concat(List.of(summarize(first), new RunSummary(PAGE_SIZE),
+                summarize(second)));
+
+        assertEquals(joined.length, summary.getNumFields());
+        assertEquals(first[0], summary.getMin());
+        assertEquals(second[second.length - 1], summary.getMax());
+        assertEquals(6, summary.getIndexSize());
+        assertEquals(first.length, summary.indexPosition(4));
+        for (int entry = 0; entry < summary.getIndexSize(); entry++) {
+            assertEquals(joined[(int) summary.indexPosition(entry)], summary.indexKey(entry));
+        }
+        for (int key = joined[0] - 1; key <= joined[joined.length - 1] + 1; key++) {
+            for (boolean after : new boolean[]{false, true}) {
+                long expected = position(joined, key, after);
+                assertTrue(summary.searchFrom(key, after) <= expected && expected <= summary.searchTo(key, after));
+            }
+        }
+    }
+
+    @Test
+    void roundTripsThroughItsSidecarFile() throws IOException {
+        int[] values = withDuplicates(new Random(5), 9 * FIELDS_PER_PAGE + 1);
+        RunSummary summary = summarize(values);
+        File file = RunSummary.fileFor(tempDir.resolve("run.bin").toFile());
+        summary.save(file);
+
+        RunSummary loaded = RunSummary.load(file);
+        assertEquals(summary.toString(), loaded.toString());
+        assertEquals(PAGE_SIZE, loaded.getPageSize());
+        for (int entry = 0; entry < summary.getIndexSize(); entry++) {
+            assertEquals(summary.indexPosition(entry), loaded.indexPosition(entry));
+            assertEquals(summary.indexKey(entry), loaded.indexKey(entry));
+        }
+
+        assertNull(RunSummary.load(tempDir.resolve("missing.summary").toFile()));
+        Files.writeString(file.toPath(), "not a summary");
+        assertNull(RunSummary.load(file));
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SortConfigTest {
+
+    @Test
+    void rejectsBudgetsBelowTheMinimumBuffers() {
+        assertThrows(IllegalArgumentException.class, () -> new SortConfig(2 * 4096, 4096, 2));
+        assertEquals(SortConfig.MIN_BUFFERS, new SortConfig(3 * 4096, 4096, 2).getNumBuffers());
+
+        SortConfig config = new SortConfig();
+        assertThrows(IllegalArgumentException.class, () -> config.setMemoryBudget(2L * config.getPageSize()));
+    }
+
+    @Test
+    void rejectsPageSizesTheBudgetCannotHoldThreeOf() {
+        SortConfig config = new SortConfig(12 * 1024, 1024, 2);
+        assertThrows(IllegalArgumentException.class, () -> config.setPageSize(8 * 1024));
+        assertEquals(1024, config.getPageSize());
+
+        config.setPageSize(4 * 1024);
+        assertEquals(SortConfig.MIN_BUFFERS, config.getNumBuffers());
+    }
+
+    @Test
+    void rejectsInvalidPageSizesAndFanIns() {
+        assertThrows(IllegalArgumentException.class, () -> new SortConfig(64 * 1024, 4098, 2));
+        assertThrows(IllegalArgumentException.class, () -> new SortConfig(64 * 1024, 0, 2));
+        assertThrows(IllegalArgumentException.class, () -> new SortConfig(64 * 1024, 4096, 1));
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SortedFileTest {
+    private static final int PAGE_SIZE = 64;
+
+    @TempDir
+    Path tempDir;
+
+    private ExternalSort sorter;
+
+    @BeforeEach
+    void createSorter() {
+        sorter = TestRuns.sorter(new SortConfig(64 * 1024, PAGE_SIZE, 16), tempDir);
+    }
+
+    @AfterEach
+    void releaseSorter() throws IOException {
+        TestRuns.release(sorter);
+    }
+
+    /**
+     * Sorted values in which most keys repeat, many of them across page boundaries.
+     */
+    private static int[] values(Random random, int length) {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextInt(length / 10) * 3;
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Writes the values as a run with its summary saved next to it.
+     */
+    private File indexedFile(int[] values) throws IOException {
+        Run run = TestRuns.writeRun(sorter, values);
+        run.saveSummary();
+        return run.getFile();
+    }
+
+    private static long seek(int[] values, int key) {
+        int i = 0;
+        while (i < values.length && values[i] < key) i++;
+        return i;
+    }
+
+    private static int[] range(int[] values, int lo, int hi) {
+        return Arrays.stream(values).filter(v -> v >= lo && v <= hi).toArray();
+    }
+
+    private static int[] read(RunIterator iterator) throws IOException {
+        int[] values = new int[16];
+        int n = 0;
+        while (iterator.hasNext()) {
+            if (n == values.length) values = Arrays.copyOf(values, 2 * n);
+            values[n++] = iterator.nextInt();
+        }
+        iterator.close();
+        return Arrays.copyOf(values, n);
+    }
+
+    private static void assertAnswersLikeAScan(int[] values, SortedFile sortedFile) throws IOException {
+        assertEquals(values.length, sortedFile.size());
+        int min = values[0];
+        int max = values[values.length - 1];
+        Random random = new Random(values.length);
+        for (int query = 0; query < 300; query++) {
+            int lo = min - 5 + random.nextInt(max - min + 10);
+            int hi = lo + random.nextInt(40) - 5;
+            assertEquals(seek(values, lo), sortedFile.seek(lo), "seek " + lo);
+            assertEquals(range(values, lo, hi).length, sortedFile.count(lo, hi), "count " + lo + ".." + hi);
+            assertArrayEquals(range(values, lo, hi), read(sortedFile.range(lo, hi)), "range " + lo + ".." + hi);
+        }
+
+        // Keys before the first value and after the last
+        assertEquals(0, sortedFile.seek(Integer.MIN_VALUE));
+        assertEquals(values.length, sortedFile.seek(max + 1));
+        assertEquals(0, sortedFile.count(Integer.MIN_VALUE, min - 1));
+        assertEquals(0, sortedFile.count(max + 1, Integer.MAX_VALUE));
+        assertEquals(values.length, sortedFile.count(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertArrayEquals(values, read(sortedFile.range(Integer.MIN_VALUE, Integer.MAX_VALUE)));
+        assertArrayEquals(new int[0], read(sortedFile.range(max, min)));
+    }
+
+    @Test
+    void answersQueriesThroughThePageIndex() throws IOException {
+        int[] values = values(new Random(1), 5000);
+        try (SortedFile sortedFile = new SortedFile(indexedFile(values))) {
+            assertTrue(sortedFile.isIndexed());
+            assertAnswersLikeAScan(values, sortedFile);
+        }
+    }
+
+    @Test
+    void findsKeysRepeatedAcrossPageBoundaries() throws IOException {
+        int fieldsPerPage = PAGE_SIZE / Page.FIELD_SIZE;
+        // Key 7 fills three pages and spills into a fourth
+        int[] values = new int[6 * fieldsPerPage];
+        Arrays.fill(values, 0, fieldsPerPage - 2, 1);
+        Arrays.fill(values, fieldsPerPage - 2, 4 * fieldsPerPage + 1, 7);
+        Arrays.fill(values, 4 * fieldsPerPage + 1, values.length, 9);
+
+        try (SortedFile sortedFile = new SortedFile(indexedFile(values))) {
+            assertEquals(fieldsPerPage - 2, sortedFile.seek(7));
+            assertEquals(3 * fieldsPerPage + 3, sortedFile.count(7, 7));
+            assertEquals(4 * fieldsPerPage + 1, sortedFile.seek(8));
+            assertArrayEquals(range(values, 2, 8), read(sortedFile.range(2, 8)));
+        }
+    }
+
+    @Test
+    void searchesFilesWithoutASummary() throws IOException {
+        // Larger than one default page, so the search cannot just read everything at once
+        int[] values = values(new Random(2), 3 * Page.DEFAULT_PAGE_SIZE / Page.FIELD_SIZE + 17);
+        try (SortedFile sortedFile = new SortedFile(TestRuns.writeBinary(tempDir, values))) {
+            assertFalse(sortedFile.isIndexed());
+            assertAnswersLikeAScan(values, sortedFile);
+        }
+    }
+
+    @Test
+    void ignoresASummaryThatNoLongerFits() throws IOException {
+        int[] values = values(new Random(3), 2000);
+        File file = indexedFile(values);
+        int[] longer = Arrays.copyOf(values, values.length + 1);
+        longer[values.length] = values[values.length - 1] + 1;
+        TestRuns.writeBinary(tempDir, longer).renameTo(file);
+
+        try (SortedFile sortedFile = new SortedFile(file)) {
+            assertFalse(sortedFile.isIndexed());
+            assertAnswersLikeAScan(longer, sortedFile);
+        }
+    }
+
+    @Test
+    void rejectsPositionsOutsideTheFile() throws IOException {
+        int[] values = values(new Random(4), 100);
+        try (SortedFile sortedFile = new SortedFile(indexedFile(values))) {
+            assertEquals(values[99], sortedFile.get(99));
+            assertThrows(IndexOutOfBoundsException.class, () -> sortedFile.get(100));
+            assertThrows(IndexOutOfBoundsException.class, () -> sortedFile.get(-1));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SpillManager spillManager(List<File> directories, long quota) {
+        SortConfig config = new SortConfig();
+        config.setSpillDirectories(directories);
+        config.setSpillQuota(quota);
+        return new SpillManager(config);
+    }
+
+    @Test
+    void spreadsFilesRoundRobinOverTheDirectories() throws IOException {
+        // The directories need not exist yet
+        List<File> directories = List.of(tempDir.resolve("a").toFile(), tempDir.resolve("b").toFile(),
+                tempDir.resolve("c").toFile());
+        SpillManager spillManager = spillManager(directories, Long.MAX_VALUE);
+
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            files.add(spillManager.createFile());
+        }
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(directories.get(i % 3), files.get(i).getParentFile(), "file " + i);
+            assertTrue(files.get(i).isFile());
+            assertTrue(spillManager.isSpillFile(files.get(i)));
+        }
+
+        spillManager.deleteAll();
+        for (File file : files) {
+            assertFalse(file.exists());
+            assertFalse(spillManager.isSpillFile(file));
+        }
+    }
+
+    @Test
+    void enforcesTheQuotaAndGivesBytesBackOnDelete() throws IOException {
+        SpillManager spillManager = spillManager(List.of(tempDir.toFile()), 1000);
+        File first = spillManager.createFile();
+        File second = spillManager.createFile();
+
+        spillManager.charge(first, 600);
+        spillManager.charge(second, 400);
+        assertEquals(1000, spillManager.getBytesInUse());
+
+        // A failed charge takes nothing
+        assertThrows(IOException.class, () -> spillManager.charge(second, 1));
+        assertEquals(1000, spillManager.getBytesInUse());
+
+        spillManager.delete(first);
+        assertFalse(first.exists());
+        assertEquals(400, spillManager.getBytesInUse());
+        spillManager.charge(second, 600);
+        assertEquals(1000, spillManager.getBytesInUse());
+        assertEquals(1000, spillManager.getPeakBytesInUse());
+
+        // Deleting twice gives nothing back twice
+        spillManager.delete(first);
+        assertEquals(1000, spillManager.getBytesInUse());
+        spillManager.deleteAll();
+        assertEquals(0, spillManager.getBytesInUse());
+    }
+
+    @Test
+    void leavesFilesItDidNotCreateAlone() throws IOException {
+        SpillManager spillManager = spillManager(List.of(tempDir.toFile()), 10);
+        File output = tempDir.resolve("output.bin").toFile();
+        assertTrue(output.createNewFile());
+
+        spillManager.charge(output, 1000);
+        assertEquals(0, spillManager.getBytesInUse());
+        spillManager.delete(output);
+        spillManager.deleteAll();
+        assertTrue(output.exists());
+    }
+
+    @Test
+    void failsASortThatNeedsMoreThanTheQuota() throws IOException {
+        SortConfig config = new SortConfig(16 * 1024, 256, 4);
+        config.setRunGeneration(SortConfig.RunGeneration.PAGE_SORT);
+        config.setSpillQuota(64 * 1024);
+        config.setSpillDirectories(List.of(tempDir.resolve("spill").toFile()));
+        File input = TestRuns.writeText(tempDir, TestRuns.random(new Random(1), 50000));
+        ExternalSort sorter = new ExternalSort(input.getPath(), config);
+
+        assertThrows(IOException.class, () -> sorter.sortTo(SortSink.of(value -> { })));
+        assertEquals(0, sorter.getSpillManager().getBytesInUse());
+        assertEquals(0, tempDir.resolve("spill").toFile().list().length, "spill files left behind");
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.testfx.externalsort;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Helpers shared by the tests that write and read runs.
+ */
+final class TestRuns {
+    private TestRuns() {
+    }
+
+    /**
+     * A sorter with small pages whose spill files go to {@code tempDir}.
+     */
+    static ExternalSort sorter(SortConfig config, Path tempDir) {
+        config.setSpillDirectories(List.of(tempDir.toFile()));
+        return new ExternalSort(config);
+    }
+
+    /**
+     * The fields of a run, read through buffer 0 of its sorter's pool.
+     */
+    static int[] read(Run run) throws IOException {
+        RunIterator iterator = run.iterator(0);
+        iterator.open();
+        int[] values = new int[(int) run.numFields()];
+        int n = 0;
+        while (iterator.hasNext()) {
+            values[n++] = iterator.nextInt();
+        }
+        iterator.close();
+        return Arrays.copyOf(values, n);
+    }
+
+    /**
+     * The fields of the runs, one run after the other.
+     */
+    static int[] read(List<Run> runs) throws IOException {
+        List<int[]> parts = new ArrayList<>();
+        for (Run run : runs) {
+            parts.add(read(run));
+        }
+        return parts.stream().flatMapToInt(Arrays::stream).toArray();
+    }
+
+    /**
+     * Reads big-endian ints from {@code file} until it ends.
+     */
+    static int[] readBinary(File file) throws IOException {
+        int[] values = new int[(int) (file.length() / Page.FIELD_SIZE)];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readInt();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * A run of the sorter holding {@code values}, which must be sorted.
+     */
+    static Run writeRun(ExternalSort sorter, int[] values) throws IOException {
+        Run run = new Run(sorter);
+        for (int value : values) {
+            run.addField(value);
+        }
+        run.flush();
+        run.close();
+        return run;
+    }
+
+    static boolean isSorted(int[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i - 1] > values[i]) return false;
+        }
+        return true;
+    }
+
+    static int[] sorted(int[] values) {
+        int[] copy = values.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    static int[] random(Random random, int length) {
+        return random.ints(length).toArray();
+    }
+
+    /**
+     * Writes the values as big-endian ints, the layout of an uncompressed run.
+     */
+    static File writeBinary(Path dir, int[] values) throws IOException {
+        File file = File.createTempFile("run", ".bin", dir.toFile());
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes the values as text, one per line.
+     */
+    static File writeText(Path dir, int[] values) throws IOException {
+        File file = File.createTempFile("input", ".txt", dir.toFile());
+        try (PrintWriter out = new PrintWriter(file)) {
+            for (int value : values) {
+                out.print(value);
+                out.print('\n');
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Closes the sorter's buffers and deletes its spill files.
+     */
+    static void release(ExternalSort sorter) throws IOException {
+        sorter.getBufferPool().close();
+        sorter.getSpillManager().deleteAll();
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.testfx.externalsort;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextIngestTest {
+    @TempDir
+    Path tempDir;
+
+    private ExternalSort sorter;
+
+    @BeforeEach
+    void createSorter() {
+        sorter = TestRuns.sorter(new SortConfig(), tempDir);
+    }
+
+    @AfterEach
+    void releaseSorter() throws IOException {
+        TestRuns.release(sorter);
+    }
+
+    @Test
+    void parsesLinesEndingInLfOrCrLf() throws IOException {
+        assertArrayEquals(new int[]{1, -2, 30}, parse("1\n-2\n30\n"));
+        assertArrayEquals(new int[]{1, -2, 30}, parse("1\r\n-2\r\n30\r\n"));
+        assertArrayEquals(new int[]{1, -2, 30}, parse("1\r\n-2\n30\r\n"));
+    }
+
+    @Test
+    void parsesALastLineWithoutNewline() throws IOException {
+        assertArrayEquals(new int[]{1, 2}, parse("1\n2"));
+        assertArrayEquals(new int[]{1, 2}, parse("1\r\n2\r"));
+        assertArrayEquals(new int[]{7}, parse("7"));
+        assertArrayEquals(new int[0], parse(""));
+    }
+
+    @Test
+    void trimsLinesAndTakesASign() throws IOException {
+        assertArrayEquals(new int[]{5, -5, 5, 0, 0, 12}, parse("+5\n-5\n \t 5 \t\n-0\n+0\n0012\n"));
+        for (String line : new String[]{"-", "+", "+-1", "--1", "- 1", "1-", "1 2", "1a", "0x1", "1.5", "1e3"}) {
+            assertThrows(NumberFormatException.class, () -> parse(line + "\n"), line);
+            assertArrayEquals(new int[]{3}, parse(line + "\n3\n", true), line);
+        }
+    }
+
+    @Test
+    void acceptsValuesUpToTheIntBoundsOnly() throws IOException {
+        assertArrayEquals(new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1},
+                parse("2147483647\n-2147483648\n-2147483647\n"));
+        for (String line : new String[]{"2147483648", "-2147483649", "+2147483648", "4294967296",
+                "99999999999999999999999", "-99999999999999999999999"}) {
+            assertThrows(NumberFormatException.class, () -> parse(line + "\n"), line);
+            assertArrayEquals(new int[]{-1}, parse(line + "\n-1", true), line);
+        }
+    }
+
+    @Test
+    void treatsBlankLinesAsInvalid() throws IOException {
+        // Like Integer.parseInt of the trimmed line
+        assertThrows(NumberFormatException.class, () -> parse("1\n\n2\n"));
+        assertThrows(NumberFormatException.class, () -> parse("1\n \t \r\n2\n"));
+        assertArrayEquals(new int[]{1, 2}, parse("1\n\n \r\n2\n\n", true));
+    }
+
+    @Test
+    void reportsTheByteOffsetOfAnInvalidLine() {
+        NumberFormatException e = assertThrows(NumberFormatException.class, () -> parse("12\n345\nx\n"));
+        assertEquals("Line at byte 7 is not an integer", e.getMessage());
+    }
+
+    @Test
+    void parsesLinesSplitAcrossBlocks() throws IOException {
+        // Every line around the first block boundaries in turn straddles it, including a CRLF split between its bytes
+        for (int shift = 0; shift < 14; shift++) {
+            StringBuilder text = new StringBuilder();
+            List<Integer> expected = new ArrayList<>();
+            int filler = 0;
+            while (text.length() < TextIngest.BLOCK_SIZE - 20 + shift) {
+                text.append(filler % 10).append('\n');
+                expected.add(filler++ % 10);
+            }
+            for (int value : new int[]{-2147483648, 2147483647, -1234567, 42}) {
+                text.append("  ").append(value).append(" \r\n");
+                expected.add(value);
+            }
+            while (text.length() < 2 * TextIngest.BLOCK_SIZE + 50) {
+                text.append(-filler).append("\r\n");
+                expected.add(-filler++);
+            }
+            assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), parse(text.toString()),
+                    "shift " + shift);
+        }
+    }
+
+    @Test
+    void parsesOnlyTheGivenRangeOfBytes() throws IOException {
+        File file = write("10\n-20\n30\n40");
+        assertArrayEquals(new int[]{-20, 30}, parse(file, 3, 10, false));
+        assertArrayEquals(new int[]{40}, parse(file, 10, file.length(), false));
+        assertArrayEquals(new int[0], parse(file, 10, 10, false));
+    }
+
+    @Test
+    void parsesRandomValuesLikeIntegerParseInt() throws IOException {
+        Random random = new Random(10);
+        int[] values = random.ints(50_000).toArray();
+        assertArrayEquals(values, parse(TestRuns.writeText(tempDir, values), 0, -1, false));
+    }
+
+    @Test
+    void cutsLargeFilesAtLineStarts() throws IOException {
+        sorter.getConfig().setParallelism(4);
+        int[] values = TestRuns.random(new Random(11), 400_000);
+        File file = TestRuns.writeText(tempDir, values);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        long[] segments = new TextIngest(sorter, false).segments(file, true);
+        assertEquals(5, segments.length);
+        assertEquals(0, segments[0]);
+        assertEquals(file.length(), segments[4]);
+        for (int s = 1; s < 4; s++) {
+            assertTrue(segments[s] > segments[s - 1], "segment " + s + " is empty");
+            assertEquals('\n', bytes[(int) segments[s] - 1], "segment " + s + " starts within a line");
+        }
+        assertArrayEquals(new long[]{0, file.length()}, new TextIngest(sorter, false).segments(file, false));
+
+        assertArrayEquals(values, ingest(file), "values of the segments in order");
+    }
+
+    @Test
+    void cutsOnceALineLongerThanTheProbeEnds() throws IOException {
+        sorter.getConfig().setParallelism(4);
+        // The cuts all fall into the long line, so every segment but the first and the last is empty
+        String padding = " ".repeat(3 * TextIngest.BLOCK_SIZE);
+        File file = write("1\n" + padding + "2" + padding + "\n3\n-4");
+
+        long[] segments = new TextIngest(sorter, false).segments(file, true);
+        long afterLongLine = file.length() - "3\n-4".length();
+        for (int s = 1; s < segments.length - 1; s++) {
+            assertEquals(afterLongLine, segments[s]);
+        }
+        assertArrayEquals(new int[]{1, 2, 3, -4}, ingest(file));
+
+        // Without a newline after the cut the segments end with the file
+        File oneLine = write("5" + " ".repeat(3 * TextIngest.BLOCK_SIZE));
+        segments = new TextIngest(sorter, false).segments(oneLine, true);
+        for (int s = 1; s < segments.length; s++) {
+            assertEquals(oneLine.length(), segments[s]);
+        }
+        assertArrayEquals(new int[]{5}, ingest(oneLine));
+    }
+
+    @Test
+    void copiesConcurrentlyParsedValuesInFileOrder() throws IOException {
+        sorter.getConfig().setParallelism(3);
+        int[] values = TestRuns.random(new Random(12), 300_000);
+        File file = TestRuns.writeText(tempDir, values);
+        File copy = tempDir.resolve("copy.bin").toFile();
+
+        new TextIngest(sorter, false).ingest(file, true, segment -> field -> { }, copy);
+        assertArrayEquals(values, TestRuns.readBinary(copy));
+    }
+
+    /**
+     * Parses the file in concurrent segments and returns their values, segment by segment.
+     */
+    private int[] ingest(File file) throws IOException {
+        int maxSegments = sorter.getConfig().getParallelism();
+        List<List<Integer>> segments = new ArrayList<>();
+        for (int s = 0; s < maxSegments; s++) {
+            segments.add(new ArrayList<>());
+        }
+        new TextIngest(sorter, false).ingest(file, true, segment -> SortSink.of(segments.get(segment)::add), null);
+        return segments.stream().flatMap(List::stream).mapToInt(Integer::intValue).toArray();
+    }
+
+    private int[] parse(String text) throws IOException {
+        return parse(text, false);
+    }
+
+    private int[] parse(String text, boolean skipInvalidLines) throws IOException {
+        return parse(write(text), 0, -1, skipInvalidLines);
+    }
+
+    /**
+     * Parses bytes {@code from} to {@code to} of the file, or to its end if {@code to} is negative.
+     */
+    private int[] parse(File file, long from, long to, boolean skipInvalidLines) throws IOException {
+        List<Integer> values = new ArrayList<>();
+        long count = new TextIngest(sorter, skipInvalidLines)
+                .parse(file, from, to < 0 ? file.length() : to, SortSink.of(values::add));
+        assertEquals(values.size(), count);
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private File write(String text) throws IOException {
+        File file = File.createTempFile("input", ".txt", tempDir.toFile());
+        Files.writeString(file.toPath(), text, StandardCharsets.US_ASCII);
+        return file;
+    }
+}